@@ -19,9 +19,9 @@ import static org.mockito.Mockito.times;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
+import java.util.List;
 
 import org.mockito.Mockito;
-import org.mockito.internal.progress.MockingProgress;
 import org.mockito.internal.stubbing.answers.CallsRealMethods;
 import org.mockito.internal.stubbing.answers.DoesNothing;
 import org.mockito.internal.stubbing.answers.Returns;
@@ -32,10 +32,12 @@ import org.mockito.stubbing.OngoingStubbing;
 import org.powermock.api.mockito.expectation.ConstructorExpectationSetup;
 import org.powermock.api.mockito.expectation.PowerMockitoStubber;
 import org.powermock.api.mockito.expectation.WithOrWithoutExpectedArguments;
+import org.powermock.api.mockito.internal.MockitoBridge;
 import org.powermock.api.mockito.internal.PowerMockitoCore;
 import org.powermock.api.mockito.internal.expectation.ConstructorAwareExpectationSetup;
 import org.powermock.api.mockito.internal.expectation.DefaultConstructorExpectationSetup;
 import org.powermock.api.mockito.internal.expectation.DefaultMethodExpectationSetup;
+import org.powermock.api.mockito.internal.invocationcontrol.MockitoMethodInvocationControl;
 import org.powermock.api.mockito.internal.mockcreation.MockCreator;
 import org.powermock.api.mockito.internal.verification.DefaultConstructorArgumentsVerfication;
 import org.powermock.api.mockito.internal.verification.DefaultPrivateMethodVerification;
@@ -44,6 +46,7 @@ import org.powermock.api.mockito.verification.ConstructorArgumentsVerification;
 import org.powermock.api.mockito.verification.PrivateMethodVerification;
 import org.powermock.api.support.membermodification.MemberModifier;
 import org.powermock.core.MockRepository;
+import org.powermock.core.spi.MethodInvocationControl;
 import org.powermock.core.spi.NewInvocationControl;
 import org.powermock.reflect.Whitebox;
 
@@ -67,6 +70,84 @@ public class PowerMockito extends MemberModifier {
 		MockCreator.mock(type, true, false, null, (Method[]) null);
 	}
 
+	/**
+	 * Enable static mocking for all methods of a class. If
+	 * <code>lightweight</code> is <code>true</code> the mock only counts how
+	 * many times each method has been invoked with each set of arguments
+	 * instead of retaining every invocation, which keeps the memory usage
+	 * constant for static methods that are invoked a very large number of
+	 * times. Verifying the number of invocations, e.g.
+	 * <code>verifyStatic(times(n))</code>, works as usual but in-order
+	 * verification throws an exception and argument captors only capture each
+	 * distinct argument once. Arguments that aren't values (strings, numbers,
+	 * characters, booleans, enums or classes) are counted by identity, so
+	 * every new object passed as an argument is still retained.
+	 * 
+	 * @param type
+	 *            the class to enable static mocking
+	 * @param lightweight
+	 *            <code>true</code> to count invocations instead of retaining
+	 *            them.
+	 */
+	public static synchronized void mockStatic(Class<?> type, boolean lightweight) {
+		MockCreator.mock(type, true, false, lightweight, null, (Method[]) null);
+	}
+
+	/**
+	 * Freeze the stubbing of the static methods of a class that has been
+	 * mocked using {@link #mockStatic(Class)}. Methods stubbed to return a
+	 * constant value for any arguments are answered without passing through
+	 * Mockito from then on, and their invocations are only counted. Verify
+	 * them using argument insensitive matchers, e.g.
+	 * <code>verifyStatic(times(n))</code>. In-order verification of methods
+	 * invoked while frozen throws an exception. Use
+	 * {@link #unfreezeStatic(Class)} before stubbing the methods again.
+	 * 
+	 * @param type
+	 *            the class whose static methods to freeze
+	 */
+	public static synchronized void freezeStatic(Class<?> type) {
+		getMockitoMethodInvocationControl(MockRepository.getStaticMethodInvocationControl(type), type).freeze();
+	}
+
+	/**
+	 * Undo {@link #freezeStatic(Class)}.
+	 * 
+	 * @param type
+	 *            the class whose static methods to unfreeze
+	 */
+	public static synchronized void unfreezeStatic(Class<?> type) {
+		getMockitoMethodInvocationControl(MockRepository.getStaticMethodInvocationControl(type), type).unfreeze();
+	}
+
+	/**
+	 * Freeze the stubbing of a mock created by PowerMockito, see
+	 * {@link #freezeStatic(Class)}.
+	 * 
+	 * @param mock
+	 *            the mock to freeze
+	 */
+	public static synchronized void freeze(Object mock) {
+		getMockitoMethodInvocationControl(MockRepository.getInstanceMethodInvocationControl(mock), mock).freeze();
+	}
+
+	/**
+	 * Undo {@link #freeze(Object)}.
+	 * 
+	 * @param mock
+	 *            the mock to unfreeze
+	 */
+	public static synchronized void unfreeze(Object mock) {
+		getMockitoMethodInvocationControl(MockRepository.getInstanceMethodInvocationControl(mock), mock).unfreeze();
+	}
+
+	private static MockitoMethodInvocationControl getMockitoMethodInvocationControl(MethodInvocationControl invocationControl, Object mock) {
+		if (!(invocationControl instanceof MockitoMethodInvocationControl)) {
+			throw new IllegalArgumentException(String.format("%s is not a mock created by PowerMockito.", mock));
+		}
+		return (MockitoMethodInvocationControl) invocationControl;
+	}
+
 	/**
 	 * Creates a mock object that supports mocking of final and native methods.
 	 * 
@@ -80,6 +161,49 @@ public class PowerMockito extends MemberModifier {
 		return MockCreator.mock(type, false, false, null, (Method[]) null);
 	}
 
+	/**
+	 * Creates several mock objects of the same type that support mocking of
+	 * final and native methods. This is faster than invoking
+	 * {@link #mock(Class)} for each mock since the mocks share their
+	 * configuration and are registered all at once.
+	 * 
+	 * @param <T>
+	 *            the type of the mock objects
+	 * @param type
+	 *            the type of the mock objects
+	 * @param count
+	 *            the number of mock objects to create
+	 * @return the mock objects.
+	 */
+	public static synchronized <T> List<T> mocks(Class<T> type, int count) {
+		return MockCreator.mocks(type, count, null);
+	}
+
+	/**
+	 * Creates several mock objects of the same type that support mocking of
+	 * final and native methods, stubbed like <code>prototype</code>. The
+	 * methods that have been stubbed for the prototype when this method is
+	 * invoked are stubbed the same way (with the same answers and argument
+	 * matchers) for each created mock. Later stubbing of the prototype isn't
+	 * copied.
+	 * 
+	 * @param <T>
+	 *            the type of the mock objects
+	 * @param type
+	 *            the type of the mock objects
+	 * @param count
+	 *            the number of mock objects to create
+	 * @param prototype
+	 *            a mock of <code>type</code> whose stubbing is copied.
+	 * @return the mock objects.
+	 */
+	public static synchronized <T> List<T> mocks(Class<T> type, int count, T prototype) {
+		if (prototype == null) {
+			throw new IllegalArgumentException("The prototype cannot be null");
+		}
+		return MockCreator.mocks(type, count, prototype);
+	}
+
 	/**
 	 * Spy on objects that are final or otherwise not &quot;spyable&quot; from
 	 * normal Mockito.
@@ -152,7 +276,7 @@ public class PowerMockito extends MemberModifier {
 	 *            times(x), atLeastOnce() or never()
 	 */
 	public static synchronized void verifyStatic(VerificationMode verificationMode) {
-		Whitebox.getInternalState(Mockito.class, MockingProgress.class).verificationStarted(verificationMode);
+		MockitoBridge.getMockingProgress().verificationStarted(verificationMode);
 	}
 
 	/**
@@ -174,7 +298,7 @@ public class PowerMockito extends MemberModifier {
 	 *             If something unexpected goes wrong.
 	 */
 	public static PrivateMethodVerification verifyPrivate(Object object, VerificationMode verificationMode) throws Exception {
-		Whitebox.getInternalState(Mockito.class, MockingProgress.class).verificationStarted(verificationMode);
+		MockitoBridge.getMockingProgress().verificationStarted(verificationMode);
 		return new DefaultPrivateMethodVerification(object);
 	}
 
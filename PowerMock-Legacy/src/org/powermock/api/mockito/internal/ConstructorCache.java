@@ -0,0 +1,120 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.api.mockito.internal;
+
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.powermock.reflect.internal.WhiteboxImpl;
+
+/**
+ * Caches the constructors that are resolved when expecting and intercepting
+ * new instance creations, keyed by type and parameter (or argument) types.
+ * Only successful lookups are cached so failures are reported as before.
+ */
+public final class ConstructorCache {
+
+	private static final ConcurrentMap<Key, Constructor<?>> constructors = new ConcurrentHashMap<Key, Constructor<?>>();
+
+	private static final ConcurrentMap<Key, Constructor<?>> uniqueConstructors = new ConcurrentHashMap<Key, Constructor<?>>();
+
+	private ConstructorCache() {
+	}
+
+	/**
+	 * @return The constructor of <code>type</code> with the given parameter
+	 *         types, see {@link WhiteboxImpl#getConstructor(Class, Class...)}.
+	 */
+	public static Constructor<?> getConstructor(Class<?> type, Class<?>[] parameterTypes) {
+		final Key key = new Key(type, parameterTypes);
+		Constructor<?> constructor = constructors.get(key);
+		if (constructor == null) {
+			constructor = WhiteboxImpl.getConstructor(type, parameterTypes);
+			constructors.put(key, constructor);
+		}
+		return constructor;
+	}
+
+	/**
+	 * @return <code>true</code> if the constructor of <code>type</code> with
+	 *         the given parameter types takes a variable number of arguments.
+	 */
+	public static boolean isVarArgs(Class<?> type, Class<?>[] parameterTypes) {
+		return getConstructor(type, parameterTypes).isVarArgs();
+	}
+
+	/**
+	 * @return The only constructor of <code>type</code> that accepts
+	 *         <code>arguments</code>, see
+	 *         {@link WhiteboxImpl#findUniqueConstructorOrThrowException(Class, Object...)}
+	 *         . Since the lookup only depends on the types of the arguments
+	 *         the result is cached per argument types.
+	 */
+	public static Constructor<?> findUniqueConstructorOrThrowException(Class<?> type, Object[] arguments) {
+		final Key key = new Key(type, getTypes(arguments));
+		Constructor<?> constructor = uniqueConstructors.get(key);
+		if (constructor == null) {
+			constructor = WhiteboxImpl.findUniqueConstructorOrThrowException(type, arguments);
+			uniqueConstructors.put(key, constructor);
+		}
+		return constructor;
+	}
+
+	private static Class<?>[] getTypes(Object[] arguments) {
+		if (arguments == null) {
+			return null;
+		}
+		final Class<?>[] types = new Class<?>[arguments.length];
+		for (int i = 0; i < arguments.length; i++) {
+			types[i] = arguments[i] == null ? null : arguments[i].getClass();
+		}
+		return types;
+	}
+
+	private static final class Key {
+		private final Class<?> type;
+
+		private final Class<?>[] types;
+
+		private final int hashCode;
+
+		public Key(Class<?> type, Class<?>[] types) {
+			this.type = type;
+			// The caller may change its array after the key has been cached
+			this.types = types == null ? null : types.clone();
+			this.hashCode = 31 * type.hashCode() + Arrays.hashCode(types);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return type == other.type && Arrays.equals(types, other.types);
+		}
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.api.mockito.internal;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.mockito.Matchers;
+import org.mockito.cglib.proxy.MethodInterceptor;
+import org.mockito.internal.MockHandler;
+import org.mockito.internal.creation.MethodInterceptorFilter;
+import org.mockito.internal.creation.jmock.ClassImposterizer;
+import org.mockito.internal.debugging.Localized;
+import org.mockito.internal.invocation.Invocation;
+import org.mockito.internal.invocation.realmethod.RealMethod;
+import org.mockito.internal.progress.MockingProgress;
+import org.mockito.internal.progress.MockingProgressImpl;
+import org.mockito.internal.progress.ThreadSafeMockingProgress;
+import org.mockito.internal.stubbing.MockitoStubber;
+import org.mockito.internal.stubbing.StubbedInvocationMatcher;
+import org.mockito.internal.stubbing.StubberImpl;
+import org.mockito.internal.stubbing.answers.Returns;
+import org.mockito.internal.verification.InOrderWrapper;
+import org.mockito.internal.verification.RegisteredInvocations;
+import org.powermock.reflect.Whitebox;
+
+/**
+ * Gives access to the Mockito internals that PowerMock depends on. The fields
+ * and methods are looked up once when this class is initialized (which
+ * happens once per class-loader since the Mockito API is loaded by each mock
+ * class-loader) instead of searching the class hierarchies on every access.
+ */
+public class MockitoBridge {
+
+	private static final Field MOCKING_PROGRESS = Whitebox.getField(Matchers.class, "mockingProgress");
+
+	private static final Method THREAD_SAFELY = Whitebox.getMethod(ThreadSafeMockingProgress.class, "threadSafely");
+
+	private static final Field THREAD_LOCAL_MOCKING_PROGRESS = Whitebox.getField(ThreadSafeMockingProgress.class, "mockingProgress");
+
+	private static final Field VERIFICATION_MODE = Whitebox.getField(MockingProgressImpl.class, "verificationMode");
+
+	private static final Field EQUALS_METHOD = Whitebox.getField(MethodInterceptorFilter.class, "equalsMethod");
+
+	private static final Field HASH_CODE_METHOD = Whitebox.getField(MethodInterceptorFilter.class, "hashCodeMethod");
+
+	private static final Method HASH_CODE_FOR_MOCK = Whitebox.getMethod(MethodInterceptorFilter.class, "hashCodeForMock", Object.class);
+
+	private static final Field ANSWERS = Whitebox.getField(StubberImpl.class, "answers");
+
+	private static final Field REGISTERED_INVOCATIONS = Whitebox.getField(MockHandler.class, "registeredInvocations");
+
+	private static final Field MOCKITO_STUBBER = Whitebox.getField(MockHandler.class, "mockitoStubber");
+
+	private static final Field STUBBED = Whitebox.getField(MockitoStubber.class, "stubbed");
+
+	private static final Field STUBBED_ANSWERS = Whitebox.getField(StubbedInvocationMatcher.class, "answers");
+
+	private static final Field REAL_METHOD = Whitebox.getField(Invocation.class, "realMethod");
+
+	private static final Field RETURNS_VALUE = Whitebox.getField(Returns.class, "value");
+
+	private static final Method CREATE_PROXY_CLASS = Whitebox.getMethod(ClassImposterizer.class, "createProxyClass", Class.class, Class[].class);
+
+	private static final Method CREATE_PROXY = Whitebox.getMethod(ClassImposterizer.class, "createProxy", Class.class, MethodInterceptor.class);
+
+	private static final int MAX_LINE_LENGTH = ((Integer) get(Whitebox.getField(Invocation.class, "MAX_LINE_LENGTH"), null)).intValue();
+
+	/**
+	 * @return The mocking progress used by the Mockito API.
+	 */
+	public static MockingProgress getMockingProgress() {
+		return (MockingProgress) get(MOCKING_PROGRESS, null);
+	}
+
+	/**
+	 * @return The mocking progress of the current thread.
+	 */
+	public static MockingProgress getThreadSafeMockingProgress() {
+		return (MockingProgress) invoke(THREAD_SAFELY, null);
+	}
+
+	/**
+	 * @return The thread local holding the mocking progress of each thread.
+	 */
+	@SuppressWarnings("unchecked")
+	public static ThreadLocal<MockingProgress> getMockingProgressThreadLocal() {
+		return (ThreadLocal<MockingProgress>) get(THREAD_LOCAL_MOCKING_PROGRESS, null);
+	}
+
+	/**
+	 * @return <code>true</code> if a verification has been started on the
+	 *         current thread but not yet performed.
+	 */
+	public static boolean isVerificationStarted() {
+		final MockingProgress progress = getMockingProgressThreadLocal().get();
+		return progress != null && getVerificationMode(progress) != null;
+	}
+
+	/**
+	 * @return <code>true</code> if a verification that isn't in order has
+	 *         been started on the current thread but not yet performed.
+	 */
+	public static boolean isUnorderedVerificationStarted() {
+		final Object mode = getStartedVerificationMode();
+		return mode != null && !isInOrder(mode);
+	}
+
+	/**
+	 * @return The verification mode (a <code>Localized</code>) that has been
+	 *         started on the current thread but not yet performed, or
+	 *         <code>null</code>.
+	 */
+	public static Object getStartedVerificationMode() {
+		final MockingProgress progress = getMockingProgressThreadLocal().get();
+		return progress == null ? null : getVerificationMode(progress);
+	}
+
+	/**
+	 * @return <code>true</code> if <code>mode</code>, as returned by
+	 *         {@link #getStartedVerificationMode()}, verifies in order.
+	 */
+	@SuppressWarnings("rawtypes")
+	public static boolean isInOrder(Object mode) {
+		return ((Localized) mode).getObject() instanceof InOrderWrapper;
+	}
+
+	/**
+	 * @return The verification mode (a <code>Localized</code>) that has been
+	 *         started but not yet pulled from <code>progress</code>, or
+	 *         <code>null</code>.
+	 */
+	public static Object getVerificationMode(MockingProgress progress) {
+		if (progress instanceof MockingProgressImpl) {
+			return get(VERIFICATION_MODE, progress);
+		}
+		return Whitebox.getInternalState(progress, "verificationMode");
+	}
+
+	public static Method getEqualsMethod(MethodInterceptorFilter filter) {
+		return (Method) get(EQUALS_METHOD, filter);
+	}
+
+	public static Method getHashCodeMethod(MethodInterceptorFilter filter) {
+		return (Method) get(HASH_CODE_METHOD, filter);
+	}
+
+	/**
+	 * @return The hash code that Mockito uses for <code>mock</code>.
+	 */
+	public static Object hashCodeForMock(MethodInterceptorFilter filter, Object mock) {
+		return invoke(HASH_CODE_FOR_MOCK, filter, mock);
+	}
+
+	/**
+	 * @return The answers that have been added to <code>stubber</code>.
+	 */
+	@SuppressWarnings("rawtypes")
+	public static List getAnswers(StubberImpl stubber) {
+		return (List) get(ANSWERS, stubber);
+	}
+
+	public static RegisteredInvocations getRegisteredInvocations(@SuppressWarnings("rawtypes") MockHandler mockHandler) {
+		return (RegisteredInvocations) get(REGISTERED_INVOCATIONS, mockHandler);
+	}
+
+	/**
+	 * Replace the registered invocations of <code>mockHandler</code>. Must be
+	 * done before the mock is used.
+	 */
+	public static void setRegisteredInvocations(@SuppressWarnings("rawtypes") MockHandler mockHandler,
+			RegisteredInvocations registeredInvocations) {
+		try {
+			REGISTERED_INVOCATIONS.set(mockHandler, registeredInvocations);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Internal error: Failed to write " + REGISTERED_INVOCATIONS + " in Mockito.", e);
+		}
+	}
+
+	public static MockitoStubber getMockitoStubber(@SuppressWarnings("rawtypes") MockHandler mockHandler) {
+		return (MockitoStubber) get(MOCKITO_STUBBER, mockHandler);
+	}
+
+	/**
+	 * @return A copy of the stubbings of <code>stubber</code>, the most recent
+	 *         stubbing first.
+	 */
+	public static List<StubbedInvocationMatcher> getStubbedInvocations(MockitoStubber stubber) {
+		@SuppressWarnings("unchecked")
+		final Collection<StubbedInvocationMatcher> stubbed = (Collection<StubbedInvocationMatcher>) get(STUBBED, stubber);
+		synchronized (stubbed) {
+			return new ArrayList<StubbedInvocationMatcher>(stubbed);
+		}
+	}
+
+	/**
+	 * Add <code>stubbing</code> to <code>stubber</code>. It's added last, i.e.
+	 * it's used only if no stubbing added before it matches an invocation.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void addStubbedInvocation(MockitoStubber stubber, StubbedInvocationMatcher stubbing) {
+		final LinkedList<StubbedInvocationMatcher> stubbed = (LinkedList<StubbedInvocationMatcher>) get(STUBBED, stubber);
+		synchronized (stubbed) {
+			stubbed.addLast(stubbing);
+		}
+	}
+
+	/**
+	 * @return The answers of a stubbing, more than one if consecutive answers
+	 *         have been stubbed.
+	 */
+	@SuppressWarnings("rawtypes")
+	public static Collection getAnswers(StubbedInvocationMatcher stubbing) {
+		return (Collection) get(STUBBED_ANSWERS, stubbing);
+	}
+
+	/**
+	 * @return The real method of <code>invocation</code>.
+	 */
+	public static RealMethod getRealMethod(Invocation invocation) {
+		return (RealMethod) get(REAL_METHOD, invocation);
+	}
+
+	/**
+	 * @return The value returned by <code>answer</code>.
+	 */
+	public static Object getReturnValue(Returns answer) {
+		return get(RETURNS_VALUE, answer);
+	}
+
+	/**
+	 * Generate the class of a Mockito proxy for <code>mockedType</code>. The
+	 * constructors of <code>mockedType</code> must be accessible.
+	 */
+	public static Class<?> createProxyClass(Class<?> mockedType) {
+		return (Class<?>) invoke(CREATE_PROXY_CLASS, ClassImposterizer.INSTANCE, mockedType, new Class<?>[0]);
+	}
+
+	/**
+	 * Instantiate a proxy class created by {@link #createProxyClass(Class)}
+	 * without invoking any constructor.
+	 */
+	public static Object createProxy(Class<?> proxyClass, MethodInterceptor interceptor) {
+		return invoke(CREATE_PROXY, ClassImposterizer.INSTANCE, proxyClass, interceptor);
+	}
+
+	/**
+	 * @return The maximum length of an invocation printed on one line.
+	 */
+	public static int getMaxLineLength() {
+		return MAX_LINE_LENGTH;
+	}
+
+	private static Object get(Field field, Object object) {
+		try {
+			return field.get(object);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Internal error: Failed to read " + field + " from Mockito.", e);
+		}
+	}
+
+	private static Object invoke(Method method, Object object, Object... arguments) {
+		try {
+			return method.invoke(object, arguments);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Internal error: Failed to invoke " + method + " in Mockito.", e);
+		} catch (InvocationTargetException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException("Internal error: Failed to invoke " + method + " in Mockito.", cause);
+		}
+	}
+}
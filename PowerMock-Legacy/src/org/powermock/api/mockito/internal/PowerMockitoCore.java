@@ -15,12 +15,10 @@
  */
 package org.powermock.api.mockito.internal;
 
-import org.mockito.Mockito;
 import org.mockito.internal.progress.MockingProgress;
 import org.mockito.stubbing.Answer;
 import org.powermock.api.mockito.expectation.PowerMockitoStubber;
 import org.powermock.api.mockito.internal.expectation.PowerMockitoStubberImpl;
-import org.powermock.reflect.Whitebox;
 
 public class PowerMockitoCore {
 	public PowerMockitoStubber doAnswer(@SuppressWarnings("rawtypes") Answer answer) {
@@ -30,7 +28,7 @@ public class PowerMockitoCore {
 	}
 
 	private MockingProgress getMockingProgress() {
-		return Whitebox.getInternalState(Mockito.class, MockingProgress.class);
+		return MockitoBridge.getMockingProgress();
 	}
 
 }
@@ -20,6 +20,7 @@ import java.lang.reflect.Method;
 import org.mockito.stubbing.OngoingStubbing;
 import org.powermock.api.mockito.expectation.ConstructorExpectationSetup;
 import org.powermock.api.mockito.expectation.WithExpectedArguments;
+import org.powermock.api.mockito.internal.ConstructorCache;
 import org.powermock.api.mockito.internal.invocationcontrol.MockitoNewInvocationControl;
 import org.powermock.api.mockito.internal.mockcreation.MockCreator;
 import org.powermock.core.MockRepository;
@@ -66,9 +67,9 @@ public class DefaultConstructorExpectationSetup<T> implements ConstructorExpecta
 
 		final Class<T> unmockedType = (Class<T>) WhiteboxImpl.getUnmockedType(type);
 		if (parameterTypes == null) {
-			WhiteboxImpl.findUniqueConstructorOrThrowException(type, arguments);
+			ConstructorCache.findUniqueConstructorOrThrowException(type, arguments);
 		} else {
-			WhiteboxImpl.getConstructor(unmockedType, parameterTypes);
+			ConstructorCache.getConstructor(unmockedType, parameterTypes);
 		}
 
 		/*
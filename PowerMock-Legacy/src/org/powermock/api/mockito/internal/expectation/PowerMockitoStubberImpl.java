@@ -15,14 +15,12 @@
  */
 package org.powermock.api.mockito.internal.expectation;
 
-import java.util.List;
-
 import org.mockito.internal.stubbing.StubberImpl;
 import org.mockito.stubbing.Stubber;
 import org.powermock.api.mockito.expectation.PowerMockitoStubber;
+import org.powermock.api.mockito.internal.MockitoBridge;
 import org.powermock.api.mockito.internal.invocationcontrol.MockitoMethodInvocationControl;
 import org.powermock.core.MockRepository;
-import org.powermock.reflect.Whitebox;
 
 /**
  * Extension of the standard Mocktio stubber implementation that also support
@@ -61,6 +59,6 @@ public class PowerMockitoStubberImpl extends StubberImpl implements PowerMockito
 
     @SuppressWarnings("unchecked")
     private void addAnswersForStubbing(MockitoMethodInvocationControl invocationControl) {
-        invocationControl.getInvocationHandler().getMockHandler().setAnswersForStubbing(Whitebox.getInternalState(this, List.class));
+        invocationControl.getInvocationHandler().getMockHandler().setAnswersForStubbing(MockitoBridge.getAnswers(this));
     }
 }
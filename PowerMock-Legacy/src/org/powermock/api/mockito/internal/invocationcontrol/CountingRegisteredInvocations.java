@@ -0,0 +1,210 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.api.mockito.internal.invocationcontrol;
+
+import java.lang.reflect.Method;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mockito.internal.invocation.Invocation;
+import org.mockito.internal.verification.RegisteredInvocations;
+
+/**
+ * {@link RegisteredInvocations} for lightweight mocks that keeps one
+ * invocation for each distinct method and arguments together with the number
+ * of times it has been invoked, instead of every invocation. The memory used
+ * by a mock thus doesn't grow with the number of times it's invoked with the
+ * same arguments.
+ * <p>
+ * Verification sees each invocation as many times as it was counted, so
+ * verifying the number of invocations works as usual. Like the
+ * {@link IndexedRegisteredInvocations}, only the invocations of the verified
+ * method are examined when verifying a single method. In-order verification
+ * isn't supported since only the first occurrence of each invocation is known,
+ * the {@link MockitoMethodInvocationControl} rejects it. Argument captors only
+ * capture each distinct argument once.
+ * <p>
+ * Arguments of immutable value types (strings, numbers, characters, booleans,
+ * enums and classes) are compared using <code>equals</code>, other arguments
+ * by identity. This avoids invoking methods on arguments that may be mocks
+ * themselves, but it means that every new object passed as an argument adds
+ * an invocation that is retained for the lifetime of the mock. The memory used
+ * by a mock is thus only bounded if its other arguments are reused objects.
+ */
+public class CountingRegisteredInvocations extends RegisteredInvocations {
+
+    private final Map<InvocationKey, CountedInvocation> invocations = new LinkedHashMap<InvocationKey, CountedInvocation>();
+
+    private CountedInvocation lastInvocation;
+
+    @Override
+    public void add(Invocation invocation) {
+        add(invocation, 1);
+    }
+
+    /**
+     * Register that <code>invocation</code> has occurred <code>count</code>
+     * times.
+     */
+    public synchronized void add(Invocation invocation, int count) {
+        final InvocationKey key = new InvocationKey(invocation.getMethod(), invocation.getArguments());
+        CountedInvocation countedInvocation = invocations.get(key);
+        if (countedInvocation == null) {
+            countedInvocation = new CountedInvocation(key, invocation);
+            invocations.put(key, countedInvocation);
+        }
+        countedInvocation.count += count;
+        lastInvocation = countedInvocation;
+    }
+
+    @Override
+    public synchronized void removeLast() {
+        if (lastInvocation == null) {
+            return;
+        }
+        if (--lastInvocation.count == 0) {
+            invocations.remove(lastInvocation.key);
+        }
+        lastInvocation = null;
+    }
+
+    /**
+     * @return A snapshot where each invocation occurs as many times as it has
+     *         been counted.
+     */
+    @Override
+    public synchronized List<Invocation> getAll() {
+        final List<Invocation> distinctInvocations = new ArrayList<Invocation>(invocations.size());
+        final int[] cumulativeCounts = new int[invocations.size()];
+        final Method verifiedMethod = IndexedRegisteredInvocations.getVerifiedMethod();
+        int size = 0;
+        for (CountedInvocation countedInvocation : invocations.values()) {
+            if (verifiedMethod != null && !verifiedMethod.equals(countedInvocation.key.method)) {
+                continue;
+            }
+            if (!Invocation.isToString(countedInvocation.invocation)) {
+                size += countedInvocation.count;
+                cumulativeCounts[distinctInvocations.size()] = size;
+                distinctInvocations.add(countedInvocation.invocation);
+            }
+        }
+        return new RepeatedInvocations(distinctInvocations, cumulativeCounts, size);
+    }
+
+    private static class CountedInvocation {
+        private final InvocationKey key;
+
+        private final Invocation invocation;
+
+        private int count;
+
+        public CountedInvocation(InvocationKey key, Invocation invocation) {
+            this.key = key;
+            this.invocation = invocation;
+        }
+    }
+
+    private static class InvocationKey {
+        private final Method method;
+
+        private final Object[] arguments;
+
+        private final int hashCode;
+
+        public InvocationKey(Method method, Object[] arguments) {
+            this.method = method;
+            this.arguments = arguments == null ? new Object[0] : arguments;
+            int hashCode = method.hashCode();
+            for (Object argument : this.arguments) {
+                hashCode = 31 * hashCode + (isValue(argument) ? argument.hashCode() : System.identityHashCode(argument));
+            }
+            this.hashCode = hashCode;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof InvocationKey)) {
+                return false;
+            }
+            final InvocationKey other = (InvocationKey) obj;
+            if (hashCode != other.hashCode || !method.equals(other.method) || arguments.length != other.arguments.length) {
+                return false;
+            }
+            for (int i = 0; i < arguments.length; i++) {
+                final Object argument = arguments[i];
+                final Object otherArgument = other.arguments[i];
+                if (argument != otherArgument && !(isValue(argument) && argument.equals(otherArgument))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isValue(Object argument) {
+            return argument instanceof String || argument instanceof Number || argument instanceof Character || argument instanceof Boolean
+                    || argument instanceof Enum<?> || argument instanceof Class<?>;
+        }
+    }
+
+    private static class RepeatedInvocations extends AbstractList<Invocation> {
+        private final List<Invocation> distinctInvocations;
+
+        private final int[] cumulativeCounts;
+
+        private final int size;
+
+        public RepeatedInvocations(List<Invocation> distinctInvocations, int[] cumulativeCounts, int size) {
+            this.distinctInvocations = distinctInvocations;
+            this.cumulativeCounts = cumulativeCounts;
+            this.size = size;
+        }
+
+        @Override
+        public Invocation get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            // Find the first invocation whose cumulative count exceeds index
+            int low = 0;
+            int high = distinctInvocations.size() - 1;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (cumulativeCounts[middle] <= index) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return distinctInvocations.get(low);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
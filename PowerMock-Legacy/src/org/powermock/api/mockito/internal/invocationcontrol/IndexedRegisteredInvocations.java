@@ -0,0 +1,106 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.api.mockito.internal.invocationcontrol;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.mockito.internal.invocation.Invocation;
+import org.mockito.internal.verification.RegisteredInvocations;
+
+/**
+ * {@link RegisteredInvocations} that also indexes the invocations by method.
+ * While a verification of a method is performed on the current thread (see
+ * {@link #verifying(Method)}) only the invocations of that method are given
+ * to Mockito, so the cost of verifying doesn't depend on how many times the
+ * other methods of the mock have been invoked.
+ */
+public class IndexedRegisteredInvocations extends RegisteredInvocations {
+
+    private static final ThreadLocal<Method> verifiedMethod = new ThreadLocal<Method>();
+
+    private final LinkedList<Invocation> invocations = new LinkedList<Invocation>();
+
+    private final Map<Method, LinkedList<Invocation>> invocationsByMethod = new HashMap<Method, LinkedList<Invocation>>();
+
+    /**
+     * Restrict the invocations returned by {@link #getAll()} on the current
+     * thread to those of <code>method</code>, or remove the restriction if
+     * <code>method</code> is <code>null</code>. Only to be used while Mockito
+     * verifies <code>method</code> (and not in order).
+     * 
+     * @return The previous restriction.
+     */
+    public static Method verifying(Method method) {
+        final Method previousMethod = verifiedMethod.get();
+        verifiedMethod.set(method);
+        return previousMethod;
+    }
+
+    /**
+     * @return The method being verified on the current thread or
+     *         <code>null</code>.
+     */
+    static Method getVerifiedMethod() {
+        return verifiedMethod.get();
+    }
+
+    @Override
+    public synchronized void add(Invocation invocation) {
+        invocations.add(invocation);
+        LinkedList<Invocation> invocationsOfMethod = invocationsByMethod.get(invocation.getMethod());
+        if (invocationsOfMethod == null) {
+            invocationsOfMethod = new LinkedList<Invocation>();
+            invocationsByMethod.put(invocation.getMethod(), invocationsOfMethod);
+        }
+        invocationsOfMethod.add(invocation);
+    }
+
+    @Override
+    public synchronized void removeLast() {
+        final Invocation invocation = invocations.removeLast();
+        final LinkedList<Invocation> invocationsOfMethod = invocationsByMethod.get(invocation.getMethod());
+        invocationsOfMethod.removeLast();
+        if (invocationsOfMethod.isEmpty()) {
+            invocationsByMethod.remove(invocation.getMethod());
+        }
+    }
+
+    @Override
+    public synchronized List<Invocation> getAll() {
+        final Method method = verifiedMethod.get();
+        final List<Invocation> candidates;
+        if (method == null) {
+            candidates = invocations;
+        } else {
+            candidates = invocationsByMethod.get(method);
+            if (candidates == null) {
+                return new LinkedList<Invocation>();
+            }
+        }
+        final List<Invocation> all = new ArrayList<Invocation>(candidates.size());
+        for (Invocation invocation : candidates) {
+            if (!Invocation.isToString(invocation)) {
+                all.add(invocation);
+            }
+        }
+        return all;
+    }
+}
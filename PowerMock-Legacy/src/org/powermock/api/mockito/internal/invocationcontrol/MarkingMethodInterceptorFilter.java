@@ -0,0 +1,78 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.api.mockito.internal.invocationcontrol;
+
+import java.lang.reflect.Method;
+
+import org.mockito.cglib.proxy.MethodProxy;
+import org.mockito.internal.MockHandler;
+import org.mockito.internal.creation.MethodInterceptorFilter;
+import org.powermock.api.mockito.internal.MockitoBridge;
+
+/**
+ * A {@link MethodInterceptorFilter} that marks the current thread while the
+ * Mockito proxy handles an invocation. This lets the
+ * {@link MockitoMethodInvocationControl} know that a method invocation has
+ * already been caught by the Mockito proxy (before it reached the
+ * MockGateway) without inspecting the stack trace. It also tells the
+ * {@link IndexedRegisteredInvocations} which method is being verified.
+ */
+public class MarkingMethodInterceptorFilter extends MethodInterceptorFilter {
+
+    private static final ThreadLocal<int[]> invocationDepth = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+
+    public MarkingMethodInterceptorFilter(Class<?> toMock, @SuppressWarnings("rawtypes") MockHandler mockHandler) {
+        super(toMock, mockHandler);
+    }
+
+    @Override
+    public Object intercept(Object proxy, Method method, Object[] args, MethodProxy methodProxy) throws Throwable {
+        final int[] depth = enter();
+        final boolean verifying = MockitoBridge.isUnorderedVerificationStarted();
+        final Method previousVerifiedMethod = verifying ? IndexedRegisteredInvocations.verifying(method) : null;
+        try {
+            return super.intercept(proxy, method, args, methodProxy);
+        } finally {
+            if (verifying) {
+                IndexedRegisteredInvocations.verifying(previousVerifiedMethod);
+            }
+            depth[0]--;
+        }
+    }
+
+    /**
+     * Mark that Mockito handles an invocation on the current thread. Must be
+     * followed by decrementing the returned counter in a finally block.
+     */
+    static int[] enter() {
+        final int[] depth = invocationDepth.get();
+        depth[0]++;
+        return depth;
+    }
+
+    /**
+     * @return <code>true</code> if Mockito is handling an invocation on the
+     *         current thread.
+     */
+    static boolean isHandlingInvocation() {
+        return invocationDepth.get()[0] > 0;
+    }
+}
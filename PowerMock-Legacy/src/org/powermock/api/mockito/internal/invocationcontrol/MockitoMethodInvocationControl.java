@@ -18,26 +18,36 @@ package org.powermock.api.mockito.internal.invocationcontrol;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hamcrest.Matcher;
 import org.mockito.Mockito;
 import org.mockito.exceptions.base.MockitoAssertionError;
+import org.mockito.exceptions.base.MockitoException;
 import org.mockito.internal.MockHandler;
 import org.mockito.internal.creation.MethodInterceptorFilter;
-import org.mockito.internal.debugging.Localized;
-import org.mockito.internal.exceptions.base.StackTraceFilter;
 import org.mockito.internal.invocation.Invocation;
 import org.mockito.internal.invocation.realmethod.FilteredCGLIBProxyRealMethod;
 import org.mockito.internal.invocation.realmethod.RealMethod;
+import org.mockito.internal.matchers.Any;
 import org.mockito.internal.matchers.MatchersPrinter;
 import org.mockito.internal.progress.MockingProgress;
 import org.mockito.internal.progress.SequenceNumber;
 import org.mockito.internal.progress.ThreadSafeMockingProgress;
 import org.mockito.internal.reporting.PrintSettings;
-import org.mockito.internal.verification.api.VerificationMode;
+import org.mockito.internal.stubbing.MockitoStubber;
+import org.mockito.internal.stubbing.StubbedInvocationMatcher;
+import org.mockito.internal.stubbing.answers.Returns;
+import org.mockito.internal.verification.RegisteredInvocations;
+import org.powermock.api.mockito.internal.MockitoBridge;
 import org.powermock.core.MockGateway;
 import org.powermock.core.MockRepository;
 import org.powermock.core.spi.MethodInvocationControl;
@@ -48,11 +58,28 @@ import org.powermock.reflect.Whitebox;
  */
 public class MockitoMethodInvocationControl implements MethodInvocationControl {
 
+    // The real method adapters shared by all invocations of a method.
+    private static final ConcurrentMap<Method, RealMethod> realMethods = new ConcurrentHashMap<Method, RealMethod>();
+
     private final MethodInterceptorFilter methodInterceptorFilter;
 
     private final Set<Method> mockedMethods;
     private final Object delegator;
 
+    /*
+     * The constant answers of the methods that are frozen, null if this
+     * instance isn't frozen.
+     */
+    private volatile Map<Method, FrozenAnswer> frozenAnswers;
+
+    private volatile MockitoStubber frozenStubber;
+
+    /*
+     * The frozen methods whose counted invocations have been registered in
+     * Mockito. Their order is lost so they can't be verified in order.
+     */
+    private final ConcurrentMap<Method, Boolean> countedFrozenMethods = new ConcurrentHashMap<Method, Boolean>();
+
     /**
      * Creates a new instance.
      * 
@@ -104,19 +131,12 @@ public class MockitoMethodInvocationControl implements MethodInvocationControl {
         return mockedMethods == null || (mockedMethods != null && mockedMethods.contains(method));
     }
 
-    @SuppressWarnings("unchecked")
     private boolean isInVerificationMode() {
-        try {
-            MockingProgress progress = (MockingProgress) Whitebox.invokeMethod(ThreadSafeMockingProgress.class, "threadSafely");
-            if (progress instanceof ThreadSafeMockingProgress) {
-                ThreadLocal<MockingProgress> threadLocal = Whitebox.getInternalState(progress, ThreadLocal.class);
-                return threadLocal.get() == null;
-            } else {
-                Localized<VerificationMode> verificationMode = Whitebox.getInternalState(progress, Localized.class);
-                return verificationMode == null;
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        MockingProgress progress = MockitoBridge.getThreadSafeMockingProgress();
+        if (progress instanceof ThreadSafeMockingProgress) {
+            return MockitoBridge.getMockingProgressThreadLocal().get() == null;
+        } else {
+            return MockitoBridge.getVerificationMode(progress) == null;
         }
     }
 
@@ -138,6 +158,15 @@ public class MockitoMethodInvocationControl implements MethodInvocationControl {
         if (hasDelegator() && !Modifier.isPrivate(method.getModifiers()) && !Modifier.isFinal(method.getModifiers()) && hasBeenCaughtByMockitoProxy()) {
             returnValue = MockGateway.PROCEED;
         } else {
+            final Map<Method, FrozenAnswer> frozenAnswers = this.frozenAnswers;
+            if (frozenAnswers != null) {
+                final FrozenAnswer frozenAnswer = frozenAnswers.get(method);
+                if (frozenAnswer != null && !frozenStubber.hasAnswersForStubbing() && !MockitoBridge.isVerificationStarted()) {
+                    return frozenAnswer.answer(obj, arguments);
+                }
+                // Mockito must know about the frozen invocations before it handles any other
+                registerFrozenInvocations();
+            }
             returnValue = performIntercept(methodInterceptorFilter, obj, method, arguments);
             if (returnValue == null && isInVerificationMode()) {
                 return MockGateway.SUPPRESS;
@@ -147,20 +176,12 @@ public class MockitoMethodInvocationControl implements MethodInvocationControl {
     }
 
     private boolean hasBeenCaughtByMockitoProxy() {
-        StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
-        StackTraceFilter filter = new StackTraceFilter();
         /*
-         * We loop through all stack trace elements and see if it's "bad". Bad
-         * means that the stack trance is cluttered with Mockito proxy
-         * invocations which is why we know that the invocation has been caught
-         * by the proxy if isBad returns true.
+         * The thread is marked while Mockito handles an invocation, either
+         * because it was caught by the Mockito proxy or because we delegated
+         * it to Mockito in performIntercept.
          */
-        for (StackTraceElement stackTraceElement : stackTrace) {
-            if (filter.isBad(stackTraceElement)) {
-                return true;
-            }
-        }
-        return false;
+        return MarkingMethodInterceptorFilter.isHandlingInvocation();
     }
 
     private Object performIntercept(MethodInterceptorFilter invocationHandler, final Object interceptionObject, final Method method,
@@ -181,70 +202,60 @@ public class MockitoMethodInvocationControl implements MethodInvocationControl {
          * would be fine.
          */
         MockHandler<?> mockHandler = invocationHandler.getMockHandler();
-        if (Whitebox.<Method> getInternalState(invocationHandler, "equalsMethod").equals(method)) {
+        if (MockitoBridge.getEqualsMethod(invocationHandler).equals(method)) {
             return Boolean.valueOf(interceptionObject == arguments[0]);
-        } else if (Whitebox.<Method> getInternalState(invocationHandler, "hashCodeMethod").equals(method)) {
-            return Whitebox.invokeMethod(invocationHandler, "hashCodeForMock", interceptionObject);
+        } else if (MockitoBridge.getHashCodeMethod(invocationHandler).equals(method)) {
+            return MockitoBridge.hashCodeForMock(invocationHandler, interceptionObject);
         }
 
-        final FilteredCGLIBProxyRealMethod cglibProxyRealMethod = new FilteredCGLIBProxyRealMethod(new RealMethod() {
-            public Object invoke(Object target, Object[] arguments) throws Throwable {
-                /*
-                 * Instruct the MockGateway to don't intercept the next call.
-                 * The reason is that when Mockito is spying on objects it
-                 * should call the "real method" (which is proxied by Mockito
-                 * anyways) so that we don't end up in here one more time which
-                 * causes infinite recursion. This should not be done if the
-                 * interceptionObject is a final system class because these are
-                 * never caught by the Mockito proxy.
-                 */
-                final Class<?> type = Whitebox.getType(interceptionObject);
-                final boolean isFinalSystemClass = type.getName().startsWith("java.") && Modifier.isFinal(type.getModifiers());
-                if (!isFinalSystemClass) {
-                    MockRepository.putAdditionalState(MockGateway.DONT_MOCK_NEXT_CALL, true);
-                }
-                return method.invoke(target, arguments);
-            }
-        });
-        // }
-        Invocation invocation = new Invocation(interceptionObject, method, arguments, SequenceNumber.next(), cglibProxyRealMethod) {
-
-            /**
-             * We need to override this method because normally the String
-             * "method" is assembled by calling the "qualifiedName" method but
-             * this is not possible in our case. The reason is that the
-             * qualifiedName method does
-             * 
-             * <pre>
-             * new MockUtil().getMockName(mock)
-             * </pre>
-             * 
-             * which later will call the "isMockitoMock" method which will
-             * return false and an exception will be thrown. The reason why
-             * "isMockitoMock" returns false is that the mock is not created by
-             * the Mockito CGLib Enhancer in case of static methods.
-             */
-            @Override
-            protected String toString(@SuppressWarnings("rawtypes") List<Matcher> matchers, PrintSettings printSettings) {
-                MatchersPrinter matchersPrinter = new MatchersPrinter();
-                String method = Whitebox.getType(getMock()).getName() + "." + getMethodName();
-                String invocation = method + matchersPrinter.getArgumentsLine(matchers, printSettings);
-                if (printSettings.isMultiline()
-                        || (!matchers.isEmpty() && invocation.length() > Whitebox.<Integer> getInternalState(Invocation.class, "MAX_LINE_LENGTH"))) {
-                    return method + matchersPrinter.getArgumentsBlock(matchers, printSettings);
-                } else {
-                    return invocation;
-                }
+        final Invocation invocation = new PowerMockInvocation(interceptionObject, method, arguments, SequenceNumber.next(),
+                getRealMethod(method));
+        final Object verificationMode = MockitoBridge.getStartedVerificationMode();
+        if (verificationMode != null && MockitoBridge.isInOrder(verificationMode)) {
+            // The order of counted invocations is lost, verifying it would give wrong results
+            if (MockitoBridge.getRegisteredInvocations(mockHandler) instanceof CountingRegisteredInvocations) {
+                MockitoBridge.getThreadSafeMockingProgress().reset();
+                throw new MockitoException("In-order verification isn't supported for lightweight mocks since they only count their invocations. "
+                        + "Mock " + method.getDeclaringClass().getName() + " without the lightweight option to verify in order.");
+            } else if (countedFrozenMethods.containsKey(method)) {
+                MockitoBridge.getThreadSafeMockingProgress().reset();
+                throw new MockitoException("In-order verification isn't supported for " + method
+                        + " since it has been invoked while frozen and such invocations are only counted. Don't freeze the mock to verify in order.");
             }
-        };
+        }
+        final int[] depth = MarkingMethodInterceptorFilter.enter();
+        final boolean verifying = verificationMode != null && !MockitoBridge.isInOrder(verificationMode);
+        final Method previousVerifiedMethod = verifying ? IndexedRegisteredInvocations.verifying(method) : null;
         try {
             return mockHandler.handle(invocation);
         } catch (MockitoAssertionError e) {
             InvocationControlAssertionError.updateErrorMessageForMethodInvocation(e);
             throw e;
+        } finally {
+            if (verifying) {
+                IndexedRegisteredInvocations.verifying(previousVerifiedMethod);
+            }
+            depth[0]--;
         }
     }
 
+    /**
+     * @return The real method adapter for <code>method</code>. It's shared by
+     *         all invocations of the method since it only depends on the
+     *         method.
+     */
+    private static RealMethod getRealMethod(Method method) {
+        RealMethod realMethod = realMethods.get(method);
+        if (realMethod == null) {
+            realMethod = new FilteredCGLIBProxyRealMethod(new PowerMockRealMethod(method));
+            final RealMethod existingRealMethod = realMethods.putIfAbsent(method, realMethod);
+            if (existingRealMethod != null) {
+                realMethod = existingRealMethod;
+            }
+        }
+        return realMethod;
+    }
+
     public Object replay(Object... mocks) {
         throw new IllegalStateException("Internal error: No such thing as replay exists in Mockito.");
     }
@@ -261,6 +272,7 @@ public class MockitoMethodInvocationControl implements MethodInvocationControl {
     }
 
     public void verifyNoMoreInteractions() {
+        registerFrozenInvocations();
         try {
             methodInterceptorFilter.getMockHandler().verifyNoMoreInteractions();
         } catch (MockitoAssertionError e) {
@@ -269,6 +281,95 @@ public class MockitoMethodInvocationControl implements MethodInvocationControl {
         }
     }
 
+    /**
+     * Freeze the stubbing of this mock. Methods whose most recent stubbing
+     * returns a constant non-null value (<code>thenReturn</code> with a
+     * single value) for any arguments (no arguments or only <code>any</code>
+     * matchers) are answered directly from then on, without passing through
+     * Mockito. Invocations of such methods are only counted per method and
+     * are registered in Mockito (with the arguments of the first invocation)
+     * right before Mockito handles another invocation of this mock, for
+     * example when verifying. Thus verification of frozen methods should use
+     * argument insensitive matchers. The registered invocations of a frozen
+     * method all get the same sequence number, so verifying them in order
+     * throws an exception, even after {@link #unfreeze()}.
+     * <p>
+     * Stubbing a frozen method again using <code>when(..)</code> requires
+     * {@link #unfreeze()} first.
+     */
+    public synchronized void freeze() {
+        final MockitoStubber stubber = MockitoBridge.getMockitoStubber(methodInterceptorFilter.getMockHandler());
+        final Map<Method, FrozenAnswer> answers = new HashMap<Method, FrozenAnswer>();
+        final Set<Method> stubbedMethods = new HashSet<Method>();
+        for (StubbedInvocationMatcher stubbing : MockitoBridge.getStubbedInvocations(stubber)) {
+            final Method method = stubbing.getMethod();
+            // Only the most recent stubbing of a method is used by Mockito
+            if (stubbedMethods.add(method) && isArgumentInsensitive(stubbing)) {
+                @SuppressWarnings("rawtypes")
+                final Collection stubbedAnswers = MockitoBridge.getAnswers(stubbing);
+                if (stubbedAnswers.size() == 1) {
+                    final Object answer = stubbedAnswers.iterator().next();
+                    if (answer instanceof Returns) {
+                        final Object value = MockitoBridge.getReturnValue((Returns) answer);
+                        if (value != null) {
+                            answers.put(method, new FrozenAnswer(method, value));
+                        }
+                    }
+                }
+            }
+        }
+        registerFrozenInvocations();
+        frozenStubber = stubber;
+        frozenAnswers = answers;
+    }
+
+    /**
+     * Let Mockito handle all invocations again, see {@link #freeze()}.
+     */
+    public synchronized void unfreeze() {
+        registerFrozenInvocations();
+        frozenAnswers = null;
+    }
+
+    private boolean isArgumentInsensitive(StubbedInvocationMatcher stubbing) {
+        for (Object matcher : stubbing.getMatchers()) {
+            if (matcher != Any.ANY) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Register the invocations of frozen methods that have been counted since
+     * the last time in Mockito.
+     */
+    private void registerFrozenInvocations() {
+        final Map<Method, FrozenAnswer> frozenAnswers = this.frozenAnswers;
+        if (frozenAnswers == null) {
+            return;
+        }
+        RegisteredInvocations registeredInvocations = null;
+        for (FrozenAnswer frozenAnswer : frozenAnswers.values()) {
+            final int count = frozenAnswer.count.getAndSet(0);
+            if (count > 0) {
+                if (registeredInvocations == null) {
+                    registeredInvocations = MockitoBridge.getRegisteredInvocations(methodInterceptorFilter.getMockHandler());
+                }
+                countedFrozenMethods.put(frozenAnswer.method, Boolean.TRUE);
+                final Invocation invocation = new PowerMockInvocation(frozenAnswer.mock, frozenAnswer.method, frozenAnswer.arguments,
+                        SequenceNumber.next(), getRealMethod(frozenAnswer.method));
+                if (registeredInvocations instanceof CountingRegisteredInvocations) {
+                    ((CountingRegisteredInvocations) registeredInvocations).add(invocation, count);
+                } else {
+                    for (int i = 0; i < count; i++) {
+                        registeredInvocations.add(invocation);
+                    }
+                }
+            }
+        }
+    }
+
     private Set<Method> toSet(Method... methods) {
         return methods == null ? null : new HashSet<Method>(Arrays.asList(methods));
     }
@@ -280,4 +381,99 @@ public class MockitoMethodInvocationControl implements MethodInvocationControl {
     public MethodInterceptorFilter getInvocationHandler() {
         return methodInterceptorFilter;
     }
+
+    /**
+     * The constant answer of a frozen method and the number of times it has
+     * been given since the invocations were last registered in Mockito.
+     */
+    private static class FrozenAnswer {
+        private final Method method;
+
+        private final Object value;
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        // The mock and arguments of the first invocation
+        private volatile Object mock;
+
+        private volatile Object[] arguments;
+
+        public FrozenAnswer(Method method, Object value) {
+            this.method = method;
+            this.value = value;
+        }
+
+        public Object answer(Object mock, Object[] arguments) {
+            if (this.arguments == null) {
+                this.mock = mock;
+                this.arguments = arguments;
+            }
+            count.incrementAndGet();
+            return value;
+        }
+    }
+
+    /**
+     * Invokes the real method of a mock when Mockito calls it (e.g. when
+     * spying).
+     */
+    private static class PowerMockRealMethod implements RealMethod {
+        private final Method method;
+
+        public PowerMockRealMethod(Method method) {
+            this.method = method;
+        }
+
+        public Object invoke(Object target, Object[] arguments) throws Throwable {
+            /*
+             * Instruct the MockGateway to don't intercept the next call. The
+             * reason is that when Mockito is spying on objects it should call
+             * the "real method" (which is proxied by Mockito anyways) so that
+             * we don't end up in here one more time which causes infinite
+             * recursion. This should not be done if the target is a final
+             * system class because these are never caught by the Mockito
+             * proxy.
+             */
+            final Class<?> type = Whitebox.getType(target);
+            final boolean isFinalSystemClass = type.getName().startsWith("java.") && Modifier.isFinal(type.getModifiers());
+            if (!isFinalSystemClass) {
+                MockRepository.putAdditionalState(MockGateway.DONT_MOCK_NEXT_CALL, true);
+            }
+            return method.invoke(target, arguments);
+        }
+    }
+
+    private static class PowerMockInvocation extends Invocation {
+
+        public PowerMockInvocation(Object mock, Method method, Object[] arguments, int sequenceNumber, RealMethod realMethod) {
+            super(mock, method, arguments, sequenceNumber, realMethod);
+        }
+
+        /**
+         * We need to override this method because normally the String
+         * "method" is assembled by calling the "qualifiedName" method but this
+         * is not possible in our case. The reason is that the qualifiedName
+         * method does
+         * 
+         * <pre>
+         * new MockUtil().getMockName(mock)
+         * </pre>
+         * 
+         * which later will call the "isMockitoMock" method which will return
+         * false and an exception will be thrown. The reason why
+         * "isMockitoMock" returns false is that the mock is not created by the
+         * Mockito CGLib Enhancer in case of static methods.
+         */
+        @Override
+        protected String toString(@SuppressWarnings("rawtypes") List<Matcher> matchers, PrintSettings printSettings) {
+            MatchersPrinter matchersPrinter = new MatchersPrinter();
+            String method = Whitebox.getType(getMock()).getName() + "." + getMethodName();
+            String invocation = method + matchersPrinter.getArgumentsLine(matchers, printSettings);
+            if (printSettings.isMultiline() || (!matchers.isEmpty() && invocation.length() > MockitoBridge.getMaxLineLength())) {
+                return method + matchersPrinter.getArgumentsBlock(matchers, printSettings);
+            } else {
+                return invocation;
+            }
+        }
+    }
 }
\ No newline at end of file
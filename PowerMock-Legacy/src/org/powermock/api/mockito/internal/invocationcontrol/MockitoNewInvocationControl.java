@@ -17,16 +17,14 @@ package org.powermock.api.mockito.internal.invocationcontrol;
 
 import static org.mockito.Mockito.times;
 
-import java.lang.reflect.Constructor;
-
 import org.mockito.Mockito;
 import org.mockito.exceptions.base.MockitoAssertionError;
 import org.mockito.internal.verification.api.VerificationMode;
 import org.mockito.stubbing.OngoingStubbing;
+import org.powermock.api.mockito.internal.ConstructorCache;
 import org.powermock.core.MockRepository;
 import org.powermock.core.spi.NewInvocationControl;
 import org.powermock.core.spi.support.InvocationSubstitute;
-import org.powermock.reflect.internal.WhiteboxImpl;
 
 public class MockitoNewInvocationControl<T> implements NewInvocationControl<OngoingStubbing<T>> {
     private final InvocationSubstitute<T> substitute;
@@ -41,8 +39,7 @@ public class MockitoNewInvocationControl<T> implements NewInvocationControl<Ongo
     }
 
     public Object invoke(Class<?> type, Object[] args, Class<?>[] sig) throws Exception {
-        Constructor<?> constructor = WhiteboxImpl.getConstructor(type, sig);
-        if (constructor.isVarArgs()) {
+        if (ConstructorCache.isVarArgs(type, sig)) {
             /*
              * Get the first argument because this contains the actual varargs
              * arguments.
@@ -15,27 +15,59 @@
  */
 package org.powermock.api.mockito.internal.mockcreation;
 
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.mockito.Mockito;
 import org.mockito.internal.MockHandler;
 import org.mockito.internal.creation.MethodInterceptorFilter;
 import org.mockito.internal.creation.MockSettingsImpl;
-import org.mockito.internal.creation.jmock.ClassImposterizer;
+import org.mockito.internal.invocation.Invocation;
+import org.mockito.internal.invocation.InvocationMatcher;
 import org.mockito.internal.invocation.MatchersBinder;
-import org.mockito.internal.progress.MockingProgress;
+import org.mockito.internal.progress.SequenceNumber;
+import org.mockito.internal.stubbing.MockitoStubber;
+import org.mockito.internal.stubbing.StubbedInvocationMatcher;
 import org.mockito.internal.util.MockName;
+import org.mockito.internal.util.MockUtil;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.internal.MockitoBridge;
+import org.powermock.api.mockito.internal.invocationcontrol.CountingRegisteredInvocations;
+import org.powermock.api.mockito.internal.invocationcontrol.IndexedRegisteredInvocations;
+import org.powermock.api.mockito.internal.invocationcontrol.MarkingMethodInterceptorFilter;
 import org.powermock.api.mockito.internal.invocationcontrol.MockitoMethodInvocationControl;
 import org.powermock.core.ClassReplicaCreator;
 import org.powermock.core.MockRepository;
+import org.powermock.core.spi.MethodInvocationControl;
 import org.powermock.core.spi.support.InvocationSubstitute;
-import org.powermock.reflect.Whitebox;
 
 public class MockCreator {
 
-    @SuppressWarnings("unchecked")
+    /*
+     * The proxy classes that have been generated for each mocked type. The
+     * proxy classes are weakly referenced since they refer to the mocked type.
+     */
+    private static final Map<Class<?>, WeakReference<Class<?>>> proxyClasses = new WeakHashMap<Class<?>, WeakReference<Class<?>>>();
+
     public static <T> T mock(Class<T> type, boolean isStatic, boolean isSpy, Object delegator, Method... methods) {
+        return mock(type, isStatic, isSpy, false, delegator, methods);
+    }
+
+    /**
+     * Create a mock that, if <code>lightweight</code> is <code>true</code>,
+     * counts its invocations instead of retaining them, see
+     * {@link CountingRegisteredInvocations}.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T mock(Class<T> type, boolean isStatic, boolean isSpy, boolean lightweight, Object delegator, Method... methods) {
         if (type == null) {
             throw new IllegalArgumentException("The class to mock cannot be null");
         }
@@ -43,14 +75,9 @@ public class MockCreator {
         T mock = null;
         final String mockName = toInstanceName(type);
 
-        final Class<T> typeToMock;
-        if (type.getName().startsWith("java.") && Modifier.isFinal(type.getModifiers())) {
-            typeToMock = (Class<T>) new ClassReplicaCreator().createClassReplica(type);
-        } else {
-            typeToMock = type;
-        }
+        final Class<T> typeToMock = getTypeToMock(type);
 
-        MockData<T> mockData = createMethodInvocationControl(mockName, typeToMock, methods, isSpy, (T) delegator);
+        MockData<T> mockData = createMethodInvocationControl(mockName, typeToMock, methods, isSpy, lightweight, (T) delegator);
 
         mock = mockData.getMock();
         if (isStatic) {
@@ -65,23 +92,138 @@ public class MockCreator {
         return mock;
     }
 
+    /**
+     * Create <code>count</code> mocks of <code>type</code>. The mock settings
+     * and the proxy class are shared by the mocks and they're all put in the
+     * {@link MockRepository} at once. If <code>prototype</code> isn't
+     * <code>null</code> the methods stubbed for it are stubbed the same way
+     * for each created mock.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static <T> List<T> mocks(Class<T> type, int count, T prototype) {
+        if (type == null) {
+            throw new IllegalArgumentException("The class to mock cannot be null");
+        } else if (count < 0) {
+            throw new IllegalArgumentException("The number of mocks cannot be negative");
+        }
+
+        final String mockName = toInstanceName(type);
+        final Class<T> typeToMock = getTypeToMock(type);
+        final MockSettingsImpl mockSettings = (MockSettingsImpl) Mockito.withSettings();
+        final Class<?> proxyClass = getProxyClass(typeToMock);
+        final List<StubbedInvocationMatcher> stubbings = prototype == null ? null : MockitoBridge
+                .getStubbedInvocations(MockitoBridge.getMockitoStubber(getMockHandler(prototype)));
+
+        final List<T> mocks = new ArrayList<T>(count);
+        final Map<Object, MockitoMethodInvocationControl> invocationControls = new IdentityHashMap<Object, MockitoMethodInvocationControl>();
+        for (int i = 0; i < count; i++) {
+            final MockData<T> mockData = createMock(mockName, typeToMock, proxyClass, mockSettings, null, false, null);
+            final T mock = mockData.getMock();
+            if (stubbings != null) {
+                final MockitoStubber stubber = MockitoBridge.getMockitoStubber(mockData.getMethodInvocationControl().getInvocationHandler()
+                        .getMockHandler());
+                for (StubbedInvocationMatcher stubbing : stubbings) {
+                    MockitoBridge.addStubbedInvocation(stubber, copyStubbing(stubbing, mock));
+                }
+            }
+            mocks.add(mock);
+            invocationControls.put(mock, mockData.getMethodInvocationControl());
+        }
+        // The mocks share the proxy class, so either all or none are invocation substitutes
+        MockRepository.putInstanceMethodInvocationControls(invocationControls, !InvocationSubstitute.class.isAssignableFrom(proxyClass));
+        return mocks;
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static MockHandler getMockHandler(Object mock) {
+        final MethodInvocationControl invocationControl = MockRepository.getInstanceMethodInvocationControl(mock);
+        if (invocationControl instanceof MockitoMethodInvocationControl) {
+            return ((MockitoMethodInvocationControl) invocationControl).getInvocationHandler().getMockHandler();
+        }
+        return new MockUtil().getMockHandler(mock);
+    }
+
+    /**
+     * @return A copy of <code>stubbing</code> that matches invocations of
+     *         <code>mock</code> instead of the prototype mock.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static StubbedInvocationMatcher copyStubbing(StubbedInvocationMatcher stubbing, Object mock) {
+        final Invocation invocation = stubbing.getInvocation();
+        final Invocation invocationOfMock = new Invocation(mock, invocation.getMethod(), invocation.getRawArguments(), SequenceNumber.next(),
+                MockitoBridge.getRealMethod(invocation));
+        final Iterator<Answer> answers = MockitoBridge.getAnswers(stubbing).iterator();
+        final StubbedInvocationMatcher copy = new StubbedInvocationMatcher(new InvocationMatcher(invocationOfMock, stubbing.getMatchers()),
+                answers.next());
+        while (answers.hasNext()) {
+            copy.addAnswer(answers.next());
+        }
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Class<T> getTypeToMock(Class<T> type) {
+        if (type.getName().startsWith("java.") && Modifier.isFinal(type.getModifiers())) {
+            return (Class<T>) new ClassReplicaCreator().createClassReplica(type);
+        }
+        return type;
+    }
+
     private static <T> MockData<T> createMethodInvocationControl(final String mockName, Class<T> type, Method[] methods, boolean isSpy,
-            Object delegator) {
+            boolean lightweight, Object delegator) {
         final MockSettingsImpl mockSettings;
         if (isSpy) {
             mockSettings = (MockSettingsImpl) new MockSettingsImpl().defaultAnswer(Mockito.CALLS_REAL_METHODS);
         } else {
             mockSettings = (MockSettingsImpl) Mockito.withSettings();
         }
-        MockHandler<T> mockHandler = new MockHandler<T>(new MockName(mockName, type), Whitebox.getInternalState(Mockito.class,
-                MockingProgress.class), new MatchersBinder(), mockSettings);
-        MethodInterceptorFilter filter = new MethodInterceptorFilter(type, mockHandler);
-        final T mock = (T) ClassImposterizer.INSTANCE.imposterise(filter, type);
-        final MockitoMethodInvocationControl invocationControl = new MockitoMethodInvocationControl(filter,
-                isSpy && delegator == null ? new Object() : delegator, methods);
+        return createMock(mockName, type, getProxyClass(type), mockSettings, methods, lightweight, isSpy && delegator == null ? new Object()
+                : delegator);
+    }
+
+    private static <T> MockData<T> createMock(String mockName, Class<T> type, Class<?> proxyClass, MockSettingsImpl mockSettings,
+            Method[] methods, boolean lightweight, Object delegator) {
+        MockHandler<T> mockHandler = new MockHandler<T>(new MockName(mockName, type), MockitoBridge.getMockingProgress(),
+                new MatchersBinder(), mockSettings);
+        if (lightweight) {
+            MockitoBridge.setRegisteredInvocations(mockHandler, new CountingRegisteredInvocations());
+        } else {
+            MockitoBridge.setRegisteredInvocations(mockHandler, new IndexedRegisteredInvocations());
+        }
+        MethodInterceptorFilter filter = new MarkingMethodInterceptorFilter(type, mockHandler);
+        final T mock = type.cast(MockitoBridge.createProxy(proxyClass, filter));
+        final MockitoMethodInvocationControl invocationControl = new MockitoMethodInvocationControl(filter, delegator, methods);
         return new MockData<T>(invocationControl, mock);
     }
 
+    /**
+     * Get the class of the Mockito proxies for <code>type</code>. It's only
+     * generated for the first mock of a type, the following mocks just
+     * instantiate the same class.
+     */
+    private static Class<?> getProxyClass(Class<?> type) {
+        synchronized (proxyClasses) {
+            final WeakReference<Class<?>> proxyClassReference = proxyClasses.get(type);
+            Class<?> proxyClass = proxyClassReference == null ? null : proxyClassReference.get();
+            if (proxyClass == null) {
+                setConstructorsAccessible(type, true);
+                try {
+                    proxyClass = MockitoBridge.createProxyClass(type);
+                } finally {
+                    setConstructorsAccessible(type, false);
+                }
+                proxyClasses.put(type, new WeakReference<Class<?>>(proxyClass));
+            }
+            return proxyClass;
+        }
+    }
+
+    private static void setConstructorsAccessible(Class<?> type, boolean accessible) {
+        for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+            constructor.setAccessible(accessible);
+        }
+    }
+
     private static String toInstanceName(Class<?> clazz) {
         String className = clazz.getSimpleName();
         // lower case first letter
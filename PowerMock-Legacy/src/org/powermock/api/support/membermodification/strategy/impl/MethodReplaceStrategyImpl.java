@@ -21,6 +21,8 @@ import java.lang.reflect.Modifier;
 
 import org.powermock.api.support.MethodProxy;
 import org.powermock.api.support.membermodification.strategy.MethodReplaceStrategy;
+import org.powermock.core.MethodInvoker;
+import org.powermock.core.MethodInvokerCreator;
 
 public class MethodReplaceStrategyImpl implements MethodReplaceStrategy {
 
@@ -54,10 +56,10 @@ public class MethodReplaceStrategyImpl implements MethodReplaceStrategy {
 	}
 
 	private final class MethodInvocationHandler implements InvocationHandler {
-		private final Method methodDelegator;
+		private final MethodInvoker methodDelegator;
 
 		public MethodInvocationHandler(Method methodDelegator) {
-			this.methodDelegator = methodDelegator;
+			this.methodDelegator = new MethodInvokerCreator().createMethodInvoker(methodDelegator);
 		}
 
 		public Object invoke(Object object, Method invokingMethod, Object[] arguments) throws Throwable {
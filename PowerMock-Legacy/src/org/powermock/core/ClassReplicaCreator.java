@@ -15,7 +15,9 @@
  */
 package org.powermock.core;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -42,10 +44,31 @@ public class ClassReplicaCreator {
     // Used to make each new replica class of a specific type unique.
     private static AtomicInteger counter = new AtomicInteger(0);
 
+    /*
+     * The class replicas that have been created, the replica of a class only
+     * depends on the class.
+     */
+    private static final Map<Class<?>, Class<?>> classReplicas = new HashMap<Class<?>, Class<?>>();
+
+    /**
+     * Get a replica of <code>clazz</code>. The replica is only created the
+     * first time, following calls return the same replica class.
+     */
     public Class<?> createClassReplica(Class<?> clazz) {
         if (clazz == null) {
             throw new IllegalArgumentException("clazz cannot be null");
         }
+        synchronized (classReplicas) {
+            Class<?> classReplica = classReplicas.get(clazz);
+            if (classReplica == null) {
+                classReplica = createNewClassReplica(clazz);
+                classReplicas.put(clazz, classReplica);
+            }
+            return classReplica;
+        }
+    }
+
+    private Class<?> createNewClassReplica(Class<?> clazz) {
         ClassPool classpool = ClassPool.getDefault();
         final String originalClassName = clazz.getName();
         CtClass originalClassAsCtClass = null;
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.core;
+
+/**
+ * Invokes a single, fixed method. Implementations are typically generated by
+ * the {@link MethodInvokerCreator} so that the target method can be called
+ * directly instead of through {@link java.lang.reflect.Method#invoke}.
+ */
+public interface MethodInvoker {
+
+    /**
+     * Invoke the method.
+     * 
+     * @param target
+     *            The instance to invoke the method on or <code>null</code> if
+     *            the method is static.
+     * @param arguments
+     *            The arguments to pass to the method.
+     * @return The return value of the method (wrapped if primitive) or
+     *         <code>null</code> if the method is void.
+     * @throws Throwable
+     *             Whatever the invoked method throws, not wrapped.
+     */
+    Object invoke(Object target, Object[] arguments) throws Throwable;
+}
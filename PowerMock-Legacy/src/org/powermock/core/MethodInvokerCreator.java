@@ -0,0 +1,314 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.core;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import javassist.NotFoundException;
+
+/**
+ * This class takes care of creating a {@link MethodInvoker} for a method. The
+ * invoker is a small generated class that calls the method directly which
+ * avoids the overhead of reflection for methods that are invoked often, such
+ * as the delegates of replaced methods. If an invoker cannot be generated for
+ * a method (for example if it's not public or if it's declared by a class
+ * loaded by the bootstrap class-loader) a reflective invoker is returned
+ * instead.
+ * <p>
+ * Generated invokers report illegal arguments the way
+ * {@link Method#invoke(Object, Object...)} does, i.e. by throwing an
+ * {@link IllegalArgumentException} for a wrong number of arguments, an
+ * argument of the wrong type or <code>null</code> for a primitive parameter.
+ */
+public class MethodInvokerCreator {
+
+    // Used to make each new invoker class of a specific type unique.
+    private static AtomicInteger counter = new AtomicInteger(0);
+
+    /*
+     * The class pool used to generate the invokers of the methods declared by
+     * the classes of each class-loader.
+     */
+    private static final Map<ClassLoader, ClassPool> classPools = new WeakHashMap<ClassLoader, ClassPool>();
+
+    public MethodInvoker createMethodInvoker(Method method) {
+        if (method == null) {
+            throw new IllegalArgumentException("method cannot be null");
+        }
+        if (canGenerateInvokerFor(method)) {
+            try {
+                return generateMethodInvoker(method);
+            } catch (CannotCompileException e) {
+                // Fall back to reflection
+            } catch (NotFoundException e) {
+                // Fall back to reflection
+            } catch (LinkageError e) {
+                // Fall back to reflection
+            }
+        }
+        return new ReflectiveMethodInvoker(method);
+    }
+
+    private boolean canGenerateInvokerFor(Method method) {
+        final Class<?> declaringClass = method.getDeclaringClass();
+        final ClassLoader classLoader = declaringClass.getClassLoader();
+        if (classLoader == null || !Modifier.isPublic(method.getModifiers()) || !Modifier.isPublic(declaringClass.getModifiers())) {
+            return false;
+        }
+        try {
+            // The invoker is defined in the class-loader of the declaring class
+            // so it must see the same MethodInvoker interface as we do.
+            return classLoader.loadClass(MethodInvoker.class.getName()) == MethodInvoker.class;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private MethodInvoker generateMethodInvoker(Method method) throws CannotCompileException, NotFoundException {
+        final Class<?> declaringClass = method.getDeclaringClass();
+        final ClassLoader classLoader = declaringClass.getClassLoader();
+        final Class<?> invokerClass;
+        synchronized (classPools) {
+            final ClassPool classpool = getClassPool(classLoader);
+            final CtClass newClass = classpool.makeClass(generateInvokerClassName(declaringClass));
+            try {
+                newClass.addInterface(classpool.get(MethodInvoker.class.getName()));
+                newClass.addMethod(CtNewMethod.make(getInvokeMethodCode(method), newClass));
+                invokerClass = newClass.toClass(classLoader, declaringClass.getProtectionDomain());
+            } finally {
+                newClass.detach();
+            }
+        }
+        try {
+            return (MethodInvoker) invokerClass.getConstructor().newInstance();
+        } catch (Exception e) {
+            throw new IllegalStateException("Internal error: Failed to instantiate the generated invoker of " + method + ".", e);
+        }
+    }
+
+    /*
+     * Must be called while holding the lock of classPools.
+     */
+    private static ClassPool getClassPool(ClassLoader classLoader) {
+        ClassPool classpool = classPools.get(classLoader);
+        if (classpool == null) {
+            classpool = new ClassPool(ClassPool.getDefault());
+            classpool.appendClassPath(new LoaderClassPath(classLoader));
+            classPools.put(classLoader, classpool);
+        }
+        return classpool;
+    }
+
+    private String generateInvokerClassName(Class<?> declaringClass) {
+        return declaringClass.getName() + "$$PowerMockInvoker" + counter.getAndIncrement();
+    }
+
+    /*
+     * Generates the body of MethodInvoker#invoke that calls the method
+     * directly, unboxing the arguments and boxing the return value.
+     */
+    private String getInvokeMethodCode(Method method) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("public Object invoke(Object target, Object[] arguments) throws Throwable {\n");
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+        final String declaringClassName = method.getDeclaringClass().getName();
+        final boolean isStatic = Modifier.isStatic(method.getModifiers());
+        builder.append(MethodInvokerCreator.class.getName()).append(".checkArgumentCount($2, ").append(parameterTypes.length).append(");\n");
+        /*
+         * The target and the arguments are converted before the method is
+         * invoked so that a ClassCastException is only translated when it's
+         * caused by an argument of the wrong type.
+         */
+        if (!isStatic) {
+            builder.append(declaringClassName).append(" t = null;\n");
+        }
+        for (int i = 0; i < parameterTypes.length; i++) {
+            builder.append(getSourceName(parameterTypes[i])).append(" a").append(i).append(" = ").append(
+                    getDefaultValueSource(parameterTypes[i])).append(";\n");
+        }
+        builder.append("try {\n");
+        if (!isStatic) {
+            builder.append("t = (").append(declaringClassName).append(") ").append(MethodInvokerCreator.class.getName()).append(
+                    ".checkTarget($1);\n");
+        }
+        for (int i = 0; i < parameterTypes.length; i++) {
+            builder.append("a").append(i).append(" = ");
+            appendArgument(builder, parameterTypes[i], i);
+            builder.append(";\n");
+        }
+        builder.append("} catch (ClassCastException e) {\n");
+        builder.append("throw new IllegalArgumentException(\"argument type mismatch\");\n");
+        builder.append("}\n");
+        final boolean isVoid = method.getReturnType() == void.class;
+        if (!isVoid) {
+            builder.append("return ($w) ");
+        }
+        builder.append(isStatic ? declaringClassName : "t").append(".").append(method.getName()).append("(");
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append("a").append(i);
+        }
+        builder.append(");\n");
+        if (isVoid) {
+            builder.append("return null;\n");
+        }
+        builder.append("}");
+        return builder.toString();
+    }
+
+    private void appendArgument(StringBuilder builder, Class<?> parameterType, int index) {
+        final String argument = "$2[" + index + "]";
+        if (parameterType.isPrimitive()) {
+            final String typeName = parameterType.getName();
+            builder.append(MethodInvokerCreator.class.getName()).append(".to").append(Character.toUpperCase(typeName.charAt(0))).append(
+                    typeName.substring(1)).append("(").append(argument).append(")");
+        } else {
+            builder.append("(").append(getSourceName(parameterType)).append(") ").append(argument);
+        }
+    }
+
+    private static String getSourceName(Class<?> type) {
+        StringBuilder dimensions = new StringBuilder();
+        while (type.isArray()) {
+            dimensions.append("[]");
+            type = type.getComponentType();
+        }
+        return type.getName() + dimensions;
+    }
+
+    private static String getDefaultValueSource(Class<?> type) {
+        if (type == boolean.class) {
+            return "false";
+        } else if (type.isPrimitive()) {
+            return "(" + type.getName() + ") 0";
+        } else {
+            return "null";
+        }
+    }
+
+    /*
+     * The following methods are used by the generated invokers to check the
+     * arguments and to unwrap primitive arguments, allowing the same widening
+     * conversions as Method#invoke.
+     */
+
+    public static void checkArgumentCount(Object[] arguments, int count) {
+        if ((arguments == null ? 0 : arguments.length) != count) {
+            throw new IllegalArgumentException("wrong number of arguments");
+        }
+    }
+
+    public static Object checkTarget(Object target) {
+        if (target == null) {
+            throw new NullPointerException();
+        }
+        return target;
+    }
+
+    public static boolean toBoolean(Object argument) {
+        if (argument instanceof Boolean) {
+            return ((Boolean) argument).booleanValue();
+        }
+        throw argumentTypeMismatch();
+    }
+
+    public static byte toByte(Object argument) {
+        if (argument instanceof Byte) {
+            return ((Byte) argument).byteValue();
+        }
+        throw argumentTypeMismatch();
+    }
+
+    public static char toChar(Object argument) {
+        if (argument instanceof Character) {
+            return ((Character) argument).charValue();
+        }
+        throw argumentTypeMismatch();
+    }
+
+    public static short toShort(Object argument) {
+        if (argument instanceof Byte || argument instanceof Short) {
+            return ((Number) argument).shortValue();
+        }
+        throw argumentTypeMismatch();
+    }
+
+    public static int toInt(Object argument) {
+        if (argument instanceof Character) {
+            return ((Character) argument).charValue();
+        } else if (argument instanceof Byte || argument instanceof Short || argument instanceof Integer) {
+            return ((Number) argument).intValue();
+        }
+        throw argumentTypeMismatch();
+    }
+
+    public static long toLong(Object argument) {
+        if (argument instanceof Long) {
+            return ((Long) argument).longValue();
+        }
+        return toInt(argument);
+    }
+
+    public static float toFloat(Object argument) {
+        if (argument instanceof Float) {
+            return ((Float) argument).floatValue();
+        }
+        return toLong(argument);
+    }
+
+    public static double toDouble(Object argument) {
+        if (argument instanceof Double) {
+            return ((Double) argument).doubleValue();
+        }
+        return toFloat(argument);
+    }
+
+    private static IllegalArgumentException argumentTypeMismatch() {
+        return new IllegalArgumentException("argument type mismatch");
+    }
+
+    /**
+     * Invokes the method using reflection. Exceptions thrown by the method are
+     * unwrapped so that this invoker behaves like a generated one.
+     */
+    private static class ReflectiveMethodInvoker implements MethodInvoker {
+        private final Method method;
+
+        public ReflectiveMethodInvoker(Method method) {
+            this.method = method;
+        }
+
+        public Object invoke(Object target, Object[] arguments) throws Throwable {
+            try {
+                return method.invoke(target, arguments);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+}
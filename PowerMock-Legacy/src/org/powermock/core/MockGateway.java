@@ -19,6 +19,8 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.powermock.core.spi.MethodInvocationControl;
 import org.powermock.core.spi.NewInvocationControl;
@@ -41,8 +43,20 @@ public class MockGateway {
      */
     public static final String DONT_MOCK_NEXT_CALL = "DontMockNextCall";
 
+    /**
+     * Holds the methods whose invocation handlers are currently being invoked
+     * by a thread. A call to such a method made from within its own invocation
+     * handler is not proxied again.
+     */
+    private static final ThreadLocal<Set<Method>> METHODS_BEING_PROXIED = new ThreadLocal<Set<Method>>() {
+        @Override
+        protected Set<Method> initialValue() {
+            return new HashSet<Method>();
+        }
+    };
+
     // used for static methods
-    public static synchronized Object methodCall(Class<?> type, String methodName, Object[] args, Class<?>[] sig, String returnTypeAsString)
+    public static Object methodCall(Class<?> type, String methodName, Object[] args, Class<?>[] sig, String returnTypeAsString)
             throws Throwable {
         return doMethodCall(type, methodName, args, sig, returnTypeAsString);
     }
@@ -54,16 +68,17 @@ public class MockGateway {
         }
         Object returnValue = null;
 
+        final MockRepositorySnapshot repository = MockRepository.getSnapshot();
         MethodInvocationControl methodInvocationControl = null;
         Class<?> objectType = null;
 
         if (object instanceof Class<?>) {
             objectType = (Class<?>) object;
-            methodInvocationControl = MockRepository.getStaticMethodInvocationControl(objectType);
+            methodInvocationControl = repository.getStaticMethodInvocationControl(objectType);
         } else {
             final Class<? extends Object> type = object.getClass();
             objectType = WhiteboxImpl.getUnmockedType(type);
-            methodInvocationControl = MockRepository.getInstanceMethodInvocationControl(object);
+            methodInvocationControl = repository.getInstanceMethodInvocationControl(object);
         }
 
         /*
@@ -88,56 +103,66 @@ public class MockGateway {
                 throw e;
             }
         }
-        if (methodInvocationControl != null && methodInvocationControl.isMocked(method) && shouldMockThisCall()) {
+        final InvocationHandler invocationHandler = getMethodProxyUnlessAlreadyProxying(repository, method);
+        if (methodInvocationControl != null && methodInvocationControl.isMocked(method) && shouldMockThisCall(repository)) {
             returnValue = methodInvocationControl.invoke(object, method, args);
             if (returnValue == SUPPRESS) {
                 returnValue = TypeUtils.getDefaultValue(returnTypeAsString);
             }
-        } else if (MockRepository.hasMethodProxy(method)) {
+        } else if (invocationHandler != null) {
             /*
-             * We must temporary remove the method proxy when invoking the
-             * invocation handler because if the invocation handler delegates
-             * the call we will end up here again and we'll get a
-             * StackOverflowError.
+             * If the invocation handler delegates the call to the proxied
+             * method we will end up here again so we must keep track of which
+             * methods that are currently being proxied by this thread,
+             * otherwise we'll get a StackOverflowError.
              */
-            final InvocationHandler invocationHandler = MockRepository.removeMethodProxy(method);
+            final Set<Method> methodsBeingProxied = METHODS_BEING_PROXIED.get();
+            methodsBeingProxied.add(method);
             try {
                 returnValue = invocationHandler.invoke(object, method, args);
             } finally {
-                // Set the method proxy again after the invocation
-                MockRepository.putMethodProxy(method, invocationHandler);
+                methodsBeingProxied.remove(method);
             }
-
-        } else if (MockRepository.shouldSuppressMethod(method)) {
+        } else if (repository.shouldSuppressMethod(method)) {
             returnValue = TypeUtils.getDefaultValue(returnTypeAsString);
-        } else if (MockRepository.shouldStubMethod(method)) {
-            returnValue = MockRepository.getMethodToStub(method);
+        } else if (repository.shouldStubMethod(method)) {
+            returnValue = repository.getMethodToStub(method);
         } else {
             returnValue = PROCEED;
         }
         return returnValue;
     }
 
-    private static boolean shouldMockThisCall() {
-        Object shouldSkipMockingOfNextCall = MockRepository.getAdditionalState(DONT_MOCK_NEXT_CALL);
-        final boolean shouldMockThisCall;
-        if (shouldSkipMockingOfNextCall == null) {
-            shouldMockThisCall = true;
-        } else {
-            shouldMockThisCall = false;
+    /**
+     * @return The method proxy for <code>method</code> or <code>null</code> if
+     *         there's no proxy or if the current thread is already invoking the
+     *         proxy.
+     */
+    private static InvocationHandler getMethodProxyUnlessAlreadyProxying(MockRepositorySnapshot repository, Method method) {
+        final InvocationHandler invocationHandler = repository.getMethodProxy(method);
+        if (invocationHandler == null || METHODS_BEING_PROXIED.get().contains(method)) {
+            return null;
+        }
+        return invocationHandler;
+    }
+
+    private static boolean shouldMockThisCall(MockRepositorySnapshot repository) {
+        if (!repository.hasAdditionalState(DONT_MOCK_NEXT_CALL)) {
+            return true;
         }
-        MockRepository.removeAdditionalState(DONT_MOCK_NEXT_CALL);
-        return shouldMockThisCall;
+        // Only skip the call if we're the one to remove the state
+        return MockRepository.removeAdditionalState(DONT_MOCK_NEXT_CALL) == null;
     }
 
     // used for instance methods
-    public static synchronized Object methodCall(Object instance, String methodName, Object[] args, Class<?>[] sig,
+    public static Object methodCall(Object instance, String methodName, Object[] args, Class<?>[] sig,
             String returnTypeAsString) throws Throwable {
         return doMethodCall(instance, methodName, args, sig, returnTypeAsString);
     }
 
-    public static synchronized Object newInstanceCall(Class<?> type, Object[] args, Class<?>[] sig) throws Throwable {
-        final NewInvocationControl<?> newInvocationControl = MockRepository.getNewInstanceControl(type);
+    public static Object newInstanceCall(Class<?> type, Object[] args, Class<?>[] sig) throws Throwable {
+        final MockRepositorySnapshot repository = MockRepository.getSnapshot();
+        final NewInvocationControl<?> newInvocationControl = repository.getNewInstanceControl(type);
         if (newInvocationControl != null) {
             /*
              * We need to deal with inner, local and anonymous inner classes
@@ -157,30 +182,30 @@ public class MockGateway {
             return newInvocationControl.invoke(type, args, sig);
         }
         // Check if we should suppress the constructor code
-        if (MockRepository.shouldSuppressConstructor(WhiteboxImpl.getConstructor(type, sig))) {
+        if (repository.shouldSuppressConstructor(WhiteboxImpl.getConstructor(type, sig))) {
             return WhiteboxImpl.getFirstParentConstructor(type);
         }
         return PROCEED;
     }
 
-    public static synchronized Object fieldCall(Object instanceOrClassContainingTheField, Class<?> classDefiningField, String fieldName,
+    public static Object fieldCall(Object instanceOrClassContainingTheField, Class<?> classDefiningField, String fieldName,
             Class<?> fieldType) {
-        if (MockRepository.shouldSuppressField(WhiteboxImpl.getField(classDefiningField, fieldName))) {
+        if (MockRepository.getSnapshot().shouldSuppressField(WhiteboxImpl.getField(classDefiningField, fieldName))) {
             return TypeUtils.getDefaultValue(fieldType);
         }
         return PROCEED;
     }
 
-    public static synchronized Object staticConstructorCall(String className) {
+    public static Object staticConstructorCall(String className) {
         if (MockRepository.shouldSuppressStaticInitializerFor(className)) {
             return "suppress";
         }
         return PROCEED;
     }
 
-    public static synchronized Object constructorCall(Class<?> type, Object[] args, Class<?>[] sig) throws Throwable {
+    public static Object constructorCall(Class<?> type, Object[] args, Class<?>[] sig) throws Throwable {
         final Constructor<?> constructor = WhiteboxImpl.getConstructor(type, sig);
-        if (MockRepository.shouldSuppressConstructor(constructor)) {
+        if (MockRepository.getSnapshot().shouldSuppressConstructor(constructor)) {
             return null;
         }
         return PROCEED;
@@ -19,7 +19,6 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -32,138 +31,287 @@ import org.powermock.core.spi.NewInvocationControl;
  * Hold mock objects that should be used instead of the concrete implementation.
  * Mock transformers may use this class to gather information on which classes
  * and methods that are mocked.
+ * <p>
+ * The state is kept in an immutable {@link MockRepositorySnapshot} that is
+ * replaced (copy-on-write) each time the state is modified. Modifications are
+ * synchronized while reads only need to read the current snapshot.
+ * <p>
+ * By default the state is shared by all tests executed by the class-loader.
+ * When the repository is {@link #setTestScoped(boolean) test scoped} each test
+ * has its own state.
  */
 public class MockRepository {
 
-	private static Set<Object> objectsToAutomaticallyReplayAndVerify = new HashSet<Object>();
+	/**
+	 * Holds the state of the repository for a test (or for all tests if the
+	 * repository is not test scoped). Modifications are synchronized on the
+	 * scope.
+	 */
+	private static final class Scope {
+		/**
+		 * The scope that was current when this scope was entered or
+		 * <code>null</code> for the global scope.
+		 */
+		final Scope parent;
+
+		volatile MockRepositorySnapshot snapshot;
 
-	private static Map<Class<?>, NewInvocationControl<?>> newSubstitutions = new HashMap<Class<?>, NewInvocationControl<?>>();
+		Scope(Scope parent) {
+			this.parent = parent;
+			// Since snapshots never change the parent's state can be shared
+			this.snapshot = parent == null ? new MockRepositorySnapshot(0) : parent.snapshot;
+		}
+	}
+
+	private static final Scope globalScope = new Scope(null);
 
 	/**
-	 * Holds info about general method invocation mocks for classes.
+	 * The scope of the test executed by the current thread. Inherited by
+	 * threads started by the test.
 	 */
-	private static Map<Class<?>, MethodInvocationControl> classMocks = new HashMap<Class<?>, MethodInvocationControl>();
+	private static final InheritableThreadLocal<Scope> testScope = new InheritableThreadLocal<Scope>();
 
 	/**
-	 * Holds info about general method invocation mocks for instances.
+	 * <code>true</code> if test scoped mode is enabled for all threads.
 	 */
-	private static Map<Object, MethodInvocationControl> instanceMocks = new ListMap<Object, MethodInvocationControl>();
+	private static final boolean testScopedByDefault = Boolean.getBoolean("powermock.repository.scoped");
 
 	/**
-	 * Holds info about which methods that should return a substitute/another
-	 * instance instead of the default instance.
+	 * Set for the threads (and the threads they start) that execute tests in
+	 * test scoped mode, such as the threads executing the chunks of a suite in
+	 * parallel.
 	 */
-	private static Map<Method, Object> substituteReturnValues = new HashMap<Method, Object>();
+	private static final InheritableThreadLocal<Boolean> testScopedThreads = new InheritableThreadLocal<Boolean>();
 
 	/**
-	 * Holds info about which methods that are proxied.
+	 * Set once a test scope has been entered. Until then there's no need to
+	 * look up the scope of the current thread.
 	 */
-	private static Map<Method, InvocationHandler> methodProxies = new HashMap<Method, InvocationHandler>();
+	private static volatile boolean testScopeEntered = false;
 
 	/**
 	 * Holds info about which class that should have their static initializers
-	 * suppressed.
+	 * suppressed. This state is never cleared and it's shared by all tests
+	 * since a static initializer only runs once per class-loader.
 	 */
-	private static Set<String> suppressStaticInitializers = new HashSet<String>();
+	private static volatile Set<String> suppressStaticInitializers = new HashSet<String>();
+
+	/**
+	 * Clear all state of the mock repository except for static initializers.
+	 * The reason for not clearing static initializers is that when running in a
+	 * suite with many tests the clear method is invoked after each test. This
+	 * means that before the test that needs to suppress the static initializer
+	 * has been reach the state of the MockRepository would have been wiped out.
+	 * This is generally not a problem because most state will be added again
+	 * but suppression of static initializers are different because this state
+	 * can only be set once per class per CL. That's why we cannot remove this
+	 * state. If the repository is test scoped only the state of the current
+	 * test is cleared, the state of the scope it was entered from is kept.
+	 */
+	public static void clear() {
+		final Scope scope = currentScope();
+		if (scope.snapshot.isClean()) {
+			// Nothing has been added since the last clear
+			return;
+		}
+		synchronized (scope) {
+			scope.snapshot = scope.snapshot.cleared();
+		}
+	}
 
 	/**
-	 * Sometimes mock frameworks needs to store additional state. They can do
-	 * this using this key/value based approach.
+	 * Removes an object from the MockRepository if it exists.
 	 */
-	private static Map<String, Object> additionalState = new HashMap<String, Object>();
+	public static void remove(Object mock) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot current = scope.snapshot;
+			if (mock instanceof Class<?>) {
+				if (current.newSubstitutions.containsKey(mock) || current.classMocks.containsKey(mock)) {
+					final MockRepositorySnapshot next = current.next();
+					next.copyNewSubstitutions().remove(mock);
+					next.copyClassMocks().remove(mock);
+					scope.snapshot = next;
+				}
+			} else if (current.instanceMocks.containsKey(mock)) {
+				final MockRepositorySnapshot next = current.next();
+				next.removeInstanceMock(mock);
+				scope.snapshot = next;
+			}
+		}
+	}
 
 	/**
-	 * Set of constructors that should be suppressed.
+	 * @return The current state of the repository (of the current test if the
+	 *         repository is test scoped). The returned snapshot will never
+	 *         change.
 	 */
-	private static final Set<Constructor<?>> suppressConstructor = new HashSet<Constructor<?>>();
+	static MockRepositorySnapshot getSnapshot() {
+		return currentScope().snapshot;
+	}
 
 	/**
-	 * Set of methods that should be suppressed.
+	 * @return The number of entries in each collection of the repository (of
+	 *         the current test if the repository is test scoped) keyed by the
+	 *         name of the collection. Intended for diagnostics.
 	 */
-	private static final Set<Method> suppressMethod = new HashSet<Method>();
+	public static Map<String, Integer> getSizes() {
+		final Map<String, Integer> sizes = getSnapshot().getSizes();
+		sizes.put("suppressStaticInitializers", suppressStaticInitializers.size());
+		return sizes;
+	}
 
 	/**
-	 * Set of methods that should be suppressed.
+	 * Enable or disable test scoped mode for the tests executed by the current
+	 * thread and by the threads it starts from now on. In test scoped mode all
+	 * state except suppression of static initializers is bound to the test
+	 * that is being executed by the thread (see {@link #enterTestScope()}) and
+	 * to the threads started by the test. This allows tests to be executed in
+	 * parallel by the same class-loader without affecting tests executed by
+	 * other threads. Test scoped mode can also be enabled for all threads by
+	 * setting the system property <code>powermock.repository.scoped</code> to
+	 * <code>true</code>.
 	 */
-	private static final Set<Field> suppressField = new HashSet<Field>();
+	public static void setTestScoped(boolean testScoped) {
+		if (testScoped) {
+			testScopedThreads.set(Boolean.TRUE);
+		} else {
+			testScopedThreads.remove();
+		}
+	}
 
 	/**
-	 * Set of field types that should always be suppressed regardless of
-	 * instance.
+	 * @return <code>true</code> if the repository is test scoped for the
+	 *         current thread.
 	 */
-	private static final Set<String> suppressFieldTypes = new HashSet<String>();
+	public static boolean isTestScoped() {
+		return testScopedByDefault || testScopedThreads.get() != null;
+	}
 
 	/**
-	 * Clear all state of the mock repository except for static initializers.
-	 * The reason for not clearing static initializers is that when running in a
-	 * suite with many tests the clear method is invoked after each test. This
-	 * means that before the test that needs to suppress the static initializer
-	 * has been reach the state of the MockRepository would have been wiped out.
-	 * This is generally not a problem because most state will be added again
-	 * but suppression of static initializers are different because this state
-	 * can only be set once per class per CL. That's why we cannot remove this
-	 * state.
+	 * Start a new scope for the test that is about to be executed by the
+	 * current thread. The scope starts with the state of the scope that is
+	 * current when it's entered (the global state unless scopes are nested),
+	 * such as the state set up by mock policies before the test is executed.
+	 * Modifications made in the new scope aren't visible outside of it. Does
+	 * nothing unless the repository is test scoped.
 	 */
-	public synchronized static void clear() {
-		newSubstitutions.clear();
-		classMocks.clear();
-		instanceMocks.clear();
-		objectsToAutomaticallyReplayAndVerify.clear();
-		additionalState.clear();
-		suppressConstructor.clear();
-		suppressMethod.clear();
-		substituteReturnValues.clear();
-		suppressField.clear();
-		suppressFieldTypes.clear();
-		methodProxies.clear();
+	public static void enterTestScope() {
+		if (isTestScoped()) {
+			testScopeEntered = true;
+			testScope.set(new Scope(currentScope()));
+		}
 	}
 
 	/**
-	 * Removes an object from the MockRepository if it exists.
+	 * End the scope of the test that was executed by the current thread and
+	 * return to the scope that was current when it was entered. All state that
+	 * was added by the test is discarded.
 	 */
-	public static void remove(Object mock) {
-		if (mock instanceof Class<?>) {
-			if (newSubstitutions.containsKey(mock)) {
-				newSubstitutions.remove(mock);
-			}
-			if (classMocks.containsKey(mock)) {
-				classMocks.remove(mock);
+	public static void exitTestScope() {
+		final Scope scope = testScope.get();
+		if (scope == null || scope.parent == globalScope) {
+			testScope.remove();
+		} else {
+			testScope.set(scope.parent);
+		}
+	}
+
+	private static Scope currentScope() {
+		if (testScopeEntered) {
+			final Scope scope = testScope.get();
+			if (scope != null) {
+				return scope;
 			}
-		} else if (instanceMocks.containsKey(mock)) {
-			instanceMocks.remove(mock);
 		}
+		return globalScope;
+	}
+
+	public static MethodInvocationControl getStaticMethodInvocationControl(Class<?> type) {
+		return getSnapshot().getStaticMethodInvocationControl(type);
 	}
 
-	public static synchronized MethodInvocationControl getStaticMethodInvocationControl(Class<?> type) {
-		return classMocks.get(type);
+	public static MethodInvocationControl putStaticMethodInvocationControl(Class<?> type, MethodInvocationControl invocationControl) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot next = scope.snapshot.next();
+			final MethodInvocationControl previous = next.copyClassMocks().put(type, invocationControl);
+			scope.snapshot = next;
+			return previous;
+		}
 	}
 
-	public static synchronized MethodInvocationControl putStaticMethodInvocationControl(Class<?> type, MethodInvocationControl invocationControl) {
-		return classMocks.put(type, invocationControl);
+	public static MethodInvocationControl removeClassMethodInvocationControl(Class<?> type) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot current = scope.snapshot;
+			if (!current.classMocks.containsKey(type)) {
+				return null;
+			}
+			final MockRepositorySnapshot next = current.next();
+			final MethodInvocationControl previous = next.copyClassMocks().remove(type);
+			scope.snapshot = next;
+			return previous;
+		}
 	}
 
-	public static synchronized MethodInvocationControl removeClassMethodInvocationControl(Class<?> type) {
-		return classMocks.remove(type);
+	public static MethodInvocationControl getInstanceMethodInvocationControl(Object instance) {
+		return getSnapshot().getInstanceMethodInvocationControl(instance);
 	}
 
-	public static synchronized MethodInvocationControl getInstanceMethodInvocationControl(Object instance) {
-		return instanceMocks.get(instance);
+	public static MethodInvocationControl putInstanceMethodInvocationControl(Object instance, MethodInvocationControl invocationControl) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot next = scope.snapshot.next();
+			final MethodInvocationControl previous = next.putInstanceMock(instance, invocationControl);
+			scope.snapshot = next;
+			return previous;
+		}
 	}
 
-	public static synchronized MethodInvocationControl putInstanceMethodInvocationControl(Object instance, MethodInvocationControl invocationControl) {
-		return instanceMocks.put(instance, invocationControl);
+	/**
+	 * Put the instance method invocation controls of several mocks at once.
+	 * The mocks are published in a single modification of the repository
+	 * instead of one for each mock.
+	 * 
+	 * @param invocationControls
+	 *            The invocation control of each mock.
+	 * @param automaticallyReplayAndVerify
+	 *            <code>true</code> if the mocks should also be automatically
+	 *            replayed and verified, see
+	 *            {@link #addObjectsToAutomaticallyReplayAndVerify(Object...)}.
+	 */
+	public static void putInstanceMethodInvocationControls(Map<?, ? extends MethodInvocationControl> invocationControls,
+			boolean automaticallyReplayAndVerify) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot next = scope.snapshot.next();
+			for (Map.Entry<?, ? extends MethodInvocationControl> entry : invocationControls.entrySet()) {
+				next.putInstanceMock(entry.getKey(), entry.getValue());
+				if (automaticallyReplayAndVerify) {
+					next.addObjectToAutomaticallyReplayAndVerify(entry.getKey());
+				}
+			}
+			scope.snapshot = next;
+		}
 	}
 
-	public static synchronized MethodInvocationControl removeInstanceMethodInvocationControl(Class<?> type) {
-		return classMocks.remove(type);
+	public static MethodInvocationControl removeInstanceMethodInvocationControl(Class<?> type) {
+		return removeClassMethodInvocationControl(type);
 	}
 
-	public static synchronized NewInvocationControl<?> getNewInstanceControl(Class<?> type) {
-		return newSubstitutions.get(type);
+	public static NewInvocationControl<?> getNewInstanceControl(Class<?> type) {
+		return getSnapshot().getNewInstanceControl(type);
 	}
 
-	public static synchronized NewInvocationControl<?> putNewInstanceControl(Class<?> type, NewInvocationControl<?> control) {
-		return newSubstitutions.put(type, control);
+	public static NewInvocationControl<?> putNewInstanceControl(Class<?> type, NewInvocationControl<?> control) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot next = scope.snapshot.next();
+			final NewInvocationControl<?> previous = next.copyNewSubstitutions().put(type, control);
+			scope.snapshot = next;
+			return previous;
+		}
 	}
 
 	/**
@@ -175,7 +323,9 @@ public class MockRepository {
 	 *            its static initializers suppressed.
 	 */
 	public static synchronized void addSuppressStaticInitializer(String className) {
-		suppressStaticInitializers.add(className);
+		final Set<String> classNames = new HashSet<String>(suppressStaticInitializers);
+		classNames.add(className);
+		suppressStaticInitializers = classNames;
 	}
 
 	/**
@@ -187,7 +337,11 @@ public class MockRepository {
 	 *            longer have its static initializers suppressed.
 	 */
 	public static synchronized void removeSuppressStaticInitializer(String className) {
-		suppressStaticInitializers.remove(className);
+		if (suppressStaticInitializers.contains(className)) {
+			final Set<String> classNames = new HashSet<String>(suppressStaticInitializers);
+			classNames.remove(className);
+			suppressStaticInitializers = classNames;
+		}
 	}
 
 	/**
@@ -199,23 +353,28 @@ public class MockRepository {
 	 *            <code>className</code> should have its static initializers
 	 *            suppressed, <code>false</code> otherwise.
 	 */
-	public static synchronized boolean shouldSuppressStaticInitializerFor(String className) {
+	public static boolean shouldSuppressStaticInitializerFor(String className) {
 		return suppressStaticInitializers.contains(className);
 	}
 
 	/**
 	 * @return All classes that should be automatically replayed or verified.
 	 */
-	public static synchronized Set<Object> getObjectsToAutomaticallyReplayAndVerify() {
-		return Collections.unmodifiableSet(objectsToAutomaticallyReplayAndVerify);
+	public static Set<Object> getObjectsToAutomaticallyReplayAndVerify() {
+		return getSnapshot().objectsToAutomaticallyReplayAndVerify.keySet();
 	}
 
 	/**
 	 * Add classes that should be automatically replayed or verified.
 	 */
-	public static synchronized void addObjectsToAutomaticallyReplayAndVerify(Object... objects) {
-		for (Object mock : objects) {
-			objectsToAutomaticallyReplayAndVerify.add(mock);
+	public static void addObjectsToAutomaticallyReplayAndVerify(Object... objects) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot next = scope.snapshot.next();
+			for (Object mock : objects) {
+				next.addObjectToAutomaticallyReplayAndVerify(mock);
+			}
+			scope.snapshot = next;
 		}
 	}
 
@@ -230,24 +389,50 @@ public class MockRepository {
 	 * @return The previous object under the specified <tt>key</tt> or
 	 *         <code>null</code>.
 	 */
-	public static synchronized Object putAdditionalState(String key, Object value) {
-		return additionalState.put(key, value);
+	public static Object putAdditionalState(String key, Object value) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot next = scope.snapshot.next();
+			final Object previous = next.copyAdditionalState().put(key, value);
+			scope.snapshot = next;
+			return previous;
+		}
 	}
 
-	public static synchronized Object removeAdditionalState(String key) {
-		return additionalState.remove(key);
+	public static Object removeAdditionalState(String key) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot current = scope.snapshot;
+			if (!current.hasAdditionalState(key)) {
+				return null;
+			}
+			final MockRepositorySnapshot next = current.next();
+			final Object previous = next.copyAdditionalState().remove(key);
+			scope.snapshot = next;
+			return previous;
+		}
 	}
 
-	public static synchronized InvocationHandler removeMethodProxy(Method method) {
-		return methodProxies.remove(method);
+	public static InvocationHandler removeMethodProxy(Method method) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot current = scope.snapshot;
+			if (!current.methodProxies.containsKey(method)) {
+				return null;
+			}
+			final MockRepositorySnapshot next = current.next();
+			final InvocationHandler previous = next.copyMethodProxies().remove(method);
+			scope.snapshot = next;
+			return previous;
+		}
 	}
 
 	/**
 	 * Retrieve state based on the supplied key.
 	 */
 	@SuppressWarnings("unchecked")
-	public static synchronized <T> T getAdditionalState(String key) {
-		return (T) additionalState.get(key);
+	public static <T> T getAdditionalState(String key) {
+		return (T) getSnapshot().getAdditionalState(key);
 	}
 
 	/**
@@ -256,8 +441,13 @@ public class MockRepository {
 	 * @param method
 	 *            The method to suppress.
 	 */
-	public static synchronized void addMethodToSuppress(Method method) {
-		suppressMethod.add(method);
+	public static void addMethodToSuppress(Method method) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot next = scope.snapshot.next();
+			next.copySuppressMethod().add(method);
+			scope.snapshot = next;
+		}
 	}
 
 	/**
@@ -266,8 +456,13 @@ public class MockRepository {
 	 * @param field
 	 *            The field to suppress.
 	 */
-	public static synchronized void addFieldToSuppress(Field field) {
-		suppressField.add(field);
+	public static void addFieldToSuppress(Field field) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot next = scope.snapshot.next();
+			next.copySuppressField().add(field);
+			scope.snapshot = next;
+		}
 	}
 
 	/**
@@ -277,8 +472,13 @@ public class MockRepository {
 	 *            The fully-qualified name to a type. All fields of this type
 	 *            will be suppressed.
 	 */
-	public static synchronized void addFieldTypeToSuppress(String fieldType) {
-		suppressFieldTypes.add(fieldType);
+	public static void addFieldTypeToSuppress(String fieldType) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot next = scope.snapshot.next();
+			next.copySuppressFieldTypes().add(fieldType);
+			scope.snapshot = next;
+		}
 	}
 
 	/**
@@ -287,53 +487,58 @@ public class MockRepository {
 	 * @param constructor
 	 *            The constructor to suppress.
 	 */
-	public static synchronized void addConstructorToSuppress(Constructor<?> constructor) {
-		suppressConstructor.add(constructor);
+	public static void addConstructorToSuppress(Constructor<?> constructor) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot next = scope.snapshot.next();
+			next.copySuppressConstructor().add(constructor);
+			scope.snapshot = next;
+		}
 	}
 
 	/**
 	 * @return <code>true</code> if the <tt>method</tt> should be proxied.
 	 */
-	public static synchronized boolean hasMethodProxy(Method method) {
-		return methodProxies.containsKey(method);
+	public static boolean hasMethodProxy(Method method) {
+		return getSnapshot().getMethodProxy(method) != null;
 	}
 
 	/**
 	 * @return <code>true</code> if the <tt>method</tt> should be suppressed.
 	 */
-	public static synchronized boolean shouldSuppressMethod(Method method) {
-		return suppressMethod.contains(method);
+	public static boolean shouldSuppressMethod(Method method) {
+		return getSnapshot().shouldSuppressMethod(method);
 	}
 
 	/**
 	 * @return <code>true</code> if the <tt>field</tt> should be suppressed.
 	 */
-	public static synchronized boolean shouldSuppressField(Field field) {
-		return suppressField.contains(field) || suppressFieldTypes.contains(field.getType().getName());
+	public static boolean shouldSuppressField(Field field) {
+		return getSnapshot().shouldSuppressField(field);
 	}
 
 	/**
 	 * @return <code>true</code> if the <tt>constructor</tt> should be
 	 *         suppressed.
 	 */
-	public static synchronized boolean shouldSuppressConstructor(Constructor<?> constructor) {
-		return suppressConstructor.contains(constructor);
+	public static boolean shouldSuppressConstructor(Constructor<?> constructor) {
+		return getSnapshot().shouldSuppressConstructor(constructor);
 	}
 
 	/**
 	 * @return <code>true</code> if the <tt>method</tt> has a substitute return
 	 *         value.
 	 */
-	public static synchronized boolean shouldStubMethod(Method method) {
-		return substituteReturnValues.containsKey(method);
+	public static boolean shouldStubMethod(Method method) {
+		return getSnapshot().shouldStubMethod(method);
 	}
 
 	/**
 	 * @return The substitute return value for a particular method, may be
 	 *         <code>null</code>.
 	 */
-	public static synchronized Object getMethodToStub(Method method) {
-		return substituteReturnValues.get(method);
+	public static Object getMethodToStub(Method method) {
+		return getSnapshot().getMethodToStub(method);
 	}
 
 	/**
@@ -342,15 +547,21 @@ public class MockRepository {
 	 * 
 	 * @return The previous substitute value if any.
 	 */
-	public static synchronized Object putMethodToStub(Method method, Object value) {
-		return substituteReturnValues.put(method, value);
+	public static Object putMethodToStub(Method method, Object value) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot next = scope.snapshot.next();
+			final Object previous = next.copySubstituteReturnValues().put(method, value);
+			scope.snapshot = next;
+			return previous;
+		}
 	}
 
 	/**
 	 * @return The proxy for a particular method, may be <code>null</code>.
 	 */
-	public static synchronized InvocationHandler getMethodProxy(Method method) {
-		return methodProxies.get(method);
+	public static InvocationHandler getMethodProxy(Method method) {
+		return getSnapshot().getMethodProxy(method);
 	}
 
 	/**
@@ -359,8 +570,14 @@ public class MockRepository {
 	 * 
 	 * @return The method proxy if any.
 	 */
-	public static synchronized InvocationHandler putMethodProxy(Method method, InvocationHandler invocationHandler) {
-		return methodProxies.put(method, invocationHandler);
+	public static InvocationHandler putMethodProxy(Method method, InvocationHandler invocationHandler) {
+		final Scope scope = currentScope();
+		synchronized (scope) {
+			final MockRepositorySnapshot next = scope.snapshot.next();
+			final InvocationHandler previous = next.copyMethodProxies().put(method, invocationHandler);
+			scope.snapshot = next;
+			return previous;
+		}
 	}
 
-}
+}
\ No newline at end of file
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.core;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.powermock.core.spi.MethodInvocationControl;
+import org.powermock.core.spi.NewInvocationControl;
+
+/**
+ * An immutable snapshot of the state of the {@link MockRepository}. The
+ * repository never modifies a collection of a snapshot once it has been
+ * published, instead it copies the collection that changes into a new snapshot
+ * (sharing all other collections) and publishes the new snapshot. This means
+ * that a snapshot can be read without any synchronization, which is what the
+ * {@link MockGateway} does for each intercepted call. The collections that
+ * hold one entry per mock are {@link PersistentIdentityMap}s which aren't
+ * copied but share most of their structure with the previous version.
+ */
+final class MockRepositorySnapshot {
+
+	/*
+	 * Bits of the modified mask, one for each collection.
+	 */
+	private static final int OBJECTS_TO_AUTOMATICALLY_REPLAY_AND_VERIFY = 1 << 0;
+	private static final int NEW_SUBSTITUTIONS = 1 << 1;
+	private static final int CLASS_MOCKS = 1 << 2;
+	private static final int INSTANCE_MOCKS = 1 << 3;
+	private static final int SUBSTITUTE_RETURN_VALUES = 1 << 4;
+	private static final int METHOD_PROXIES = 1 << 5;
+	private static final int ADDITIONAL_STATE = 1 << 6;
+	private static final int SUPPRESS_CONSTRUCTOR = 1 << 7;
+	private static final int SUPPRESS_METHOD = 1 << 8;
+	private static final int SUPPRESS_FIELD = 1 << 9;
+	private static final int SUPPRESS_FIELD_TYPES = 1 << 10;
+
+	/**
+	 * Incremented for each new snapshot that is published.
+	 */
+	private final long version;
+
+	/**
+	 * A bit mask of the collections that have been modified since the
+	 * repository was cleared.
+	 */
+	private int modified;
+
+	/**
+	 * Holds the mocks that should be automatically replayed or verified,
+	 * compared by identity. It's persistent so that adding a mock doesn't
+	 * copy all the other mocks.
+	 */
+	PersistentIdentityMap<Object, Boolean> objectsToAutomaticallyReplayAndVerify;
+
+	Map<Class<?>, NewInvocationControl<?>> newSubstitutions;
+
+	/**
+	 * Holds info about general method invocation mocks for classes.
+	 */
+	Map<Class<?>, MethodInvocationControl> classMocks;
+
+	/**
+	 * Holds info about general method invocation mocks for instances. Mocks
+	 * are compared by identity since they may override <code>equals</code>.
+	 * They're held strongly: the invocation control of a mock usually
+	 * references the mock itself (e.g. through the invocations it has
+	 * registered) so a weak key would never be released anyway. Like the
+	 * objects to replay and verify it's persistent since tests may create
+	 * thousands of mocks.
+	 */
+	PersistentIdentityMap<Object, MethodInvocationControl> instanceMocks;
+
+	/**
+	 * Holds info about which methods that should return a substitute/another
+	 * instance instead of the default instance.
+	 */
+	Map<Method, Object> substituteReturnValues;
+
+	/**
+	 * Holds info about which methods that are proxied.
+	 */
+	Map<Method, InvocationHandler> methodProxies;
+
+	/**
+	 * Sometimes mock frameworks needs to store additional state. They can do
+	 * this using this key/value based approach.
+	 */
+	Map<String, Object> additionalState;
+
+	/**
+	 * Set of constructors that should be suppressed.
+	 */
+	Set<Constructor<?>> suppressConstructor;
+
+	/**
+	 * Set of methods that should be suppressed.
+	 */
+	Set<Method> suppressMethod;
+
+	/**
+	 * Set of fields that should be suppressed.
+	 */
+	Set<Field> suppressField;
+
+	/**
+	 * Set of field types that should always be suppressed regardless of
+	 * instance.
+	 */
+	Set<String> suppressFieldTypes;
+
+	/**
+	 * Create an empty snapshot.
+	 * 
+	 * @param version
+	 *            The version of the snapshot.
+	 */
+	MockRepositorySnapshot(long version) {
+		this.version = version;
+		this.objectsToAutomaticallyReplayAndVerify = PersistentIdentityMap.empty();
+		this.newSubstitutions = new HashMap<Class<?>, NewInvocationControl<?>>();
+		this.classMocks = new HashMap<Class<?>, MethodInvocationControl>();
+		this.instanceMocks = PersistentIdentityMap.empty();
+		this.substituteReturnValues = new HashMap<Method, Object>();
+		this.methodProxies = new HashMap<Method, InvocationHandler>();
+		this.additionalState = new HashMap<String, Object>();
+		this.suppressConstructor = new HashSet<Constructor<?>>();
+		this.suppressMethod = new HashSet<Method>();
+		this.suppressField = new HashSet<Field>();
+		this.suppressFieldTypes = new HashSet<String>();
+	}
+
+	private MockRepositorySnapshot(MockRepositorySnapshot snapshot) {
+		this.version = snapshot.version + 1;
+		this.modified = snapshot.modified;
+		this.objectsToAutomaticallyReplayAndVerify = snapshot.objectsToAutomaticallyReplayAndVerify;
+		this.newSubstitutions = snapshot.newSubstitutions;
+		this.classMocks = snapshot.classMocks;
+		this.instanceMocks = snapshot.instanceMocks;
+		this.substituteReturnValues = snapshot.substituteReturnValues;
+		this.methodProxies = snapshot.methodProxies;
+		this.additionalState = snapshot.additionalState;
+		this.suppressConstructor = snapshot.suppressConstructor;
+		this.suppressMethod = snapshot.suppressMethod;
+		this.suppressField = snapshot.suppressField;
+		this.suppressFieldTypes = snapshot.suppressFieldTypes;
+	}
+
+	/**
+	 * Create the next version of this snapshot. The new snapshot shares all
+	 * collections with this snapshot so the caller must replace a collection
+	 * with a copy before modifying it.
+	 */
+	MockRepositorySnapshot next() {
+		return new MockRepositorySnapshot(this);
+	}
+
+	/**
+	 * Create the next version of this snapshot with all collections cleared.
+	 * Only the collections that have been modified since the last time the
+	 * repository was cleared are replaced, the others are known to be empty
+	 * and are shared.
+	 */
+	MockRepositorySnapshot cleared() {
+		final MockRepositorySnapshot cleared = next();
+		if ((modified & OBJECTS_TO_AUTOMATICALLY_REPLAY_AND_VERIFY) != 0) {
+			cleared.objectsToAutomaticallyReplayAndVerify = PersistentIdentityMap.empty();
+		}
+		if ((modified & NEW_SUBSTITUTIONS) != 0) {
+			cleared.newSubstitutions = new HashMap<Class<?>, NewInvocationControl<?>>();
+		}
+		if ((modified & CLASS_MOCKS) != 0) {
+			cleared.classMocks = new HashMap<Class<?>, MethodInvocationControl>();
+		}
+		if ((modified & INSTANCE_MOCKS) != 0) {
+			cleared.instanceMocks = PersistentIdentityMap.empty();
+		}
+		if ((modified & SUBSTITUTE_RETURN_VALUES) != 0) {
+			cleared.substituteReturnValues = new HashMap<Method, Object>();
+		}
+		if ((modified & METHOD_PROXIES) != 0) {
+			cleared.methodProxies = new HashMap<Method, InvocationHandler>();
+		}
+		if ((modified & ADDITIONAL_STATE) != 0) {
+			cleared.additionalState = new HashMap<String, Object>();
+		}
+		if ((modified & SUPPRESS_CONSTRUCTOR) != 0) {
+			cleared.suppressConstructor = new HashSet<Constructor<?>>();
+		}
+		if ((modified & SUPPRESS_METHOD) != 0) {
+			cleared.suppressMethod = new HashSet<Method>();
+		}
+		if ((modified & SUPPRESS_FIELD) != 0) {
+			cleared.suppressField = new HashSet<Field>();
+		}
+		if ((modified & SUPPRESS_FIELD_TYPES) != 0) {
+			cleared.suppressFieldTypes = new HashSet<String>();
+		}
+		cleared.modified = 0;
+		return cleared;
+	}
+
+	/**
+	 * @return <code>true</code> if no collection has been modified since the
+	 *         repository was cleared.
+	 */
+	boolean isClean() {
+		return modified == 0;
+	}
+
+	long getVersion() {
+		return version;
+	}
+
+	/*
+	 * The following methods modify a snapshot that hasn't been published yet.
+	 * The copy methods replace a collection with a copy that can be modified,
+	 * the persistent maps are replaced with a new version instead.
+	 */
+
+	void addObjectToAutomaticallyReplayAndVerify(Object mock) {
+		objectsToAutomaticallyReplayAndVerify = objectsToAutomaticallyReplayAndVerify.with(mock, Boolean.TRUE);
+		modified |= OBJECTS_TO_AUTOMATICALLY_REPLAY_AND_VERIFY;
+	}
+
+	Map<Class<?>, NewInvocationControl<?>> copyNewSubstitutions() {
+		newSubstitutions = new HashMap<Class<?>, NewInvocationControl<?>>(newSubstitutions);
+		modified |= NEW_SUBSTITUTIONS;
+		return newSubstitutions;
+	}
+
+	Map<Class<?>, MethodInvocationControl> copyClassMocks() {
+		classMocks = new HashMap<Class<?>, MethodInvocationControl>(classMocks);
+		modified |= CLASS_MOCKS;
+		return classMocks;
+	}
+
+	MethodInvocationControl putInstanceMock(Object instance, MethodInvocationControl invocationControl) {
+		final MethodInvocationControl previous = instanceMocks.get(instance);
+		instanceMocks = instanceMocks.with(instance, invocationControl);
+		modified |= INSTANCE_MOCKS;
+		return previous;
+	}
+
+	void removeInstanceMock(Object instance) {
+		instanceMocks = instanceMocks.without(instance);
+		modified |= INSTANCE_MOCKS;
+	}
+
+	Map<Method, Object> copySubstituteReturnValues() {
+		substituteReturnValues = new HashMap<Method, Object>(substituteReturnValues);
+		modified |= SUBSTITUTE_RETURN_VALUES;
+		return substituteReturnValues;
+	}
+
+	Map<Method, InvocationHandler> copyMethodProxies() {
+		methodProxies = new HashMap<Method, InvocationHandler>(methodProxies);
+		modified |= METHOD_PROXIES;
+		return methodProxies;
+	}
+
+	Map<String, Object> copyAdditionalState() {
+		additionalState = new HashMap<String, Object>(additionalState);
+		modified |= ADDITIONAL_STATE;
+		return additionalState;
+	}
+
+	Set<Constructor<?>> copySuppressConstructor() {
+		suppressConstructor = new HashSet<Constructor<?>>(suppressConstructor);
+		modified |= SUPPRESS_CONSTRUCTOR;
+		return suppressConstructor;
+	}
+
+	Set<Method> copySuppressMethod() {
+		suppressMethod = new HashSet<Method>(suppressMethod);
+		modified |= SUPPRESS_METHOD;
+		return suppressMethod;
+	}
+
+	Set<Field> copySuppressField() {
+		suppressField = new HashSet<Field>(suppressField);
+		modified |= SUPPRESS_FIELD;
+		return suppressField;
+	}
+
+	Set<String> copySuppressFieldTypes() {
+		suppressFieldTypes = new HashSet<String>(suppressFieldTypes);
+		modified |= SUPPRESS_FIELD_TYPES;
+		return suppressFieldTypes;
+	}
+
+	/**
+	 * @return The number of entries in each collection of the snapshot, keyed
+	 *         by the name of the collection.
+	 */
+	Map<String, Integer> getSizes() {
+		final Map<String, Integer> sizes = new LinkedHashMap<String, Integer>();
+		sizes.put("objectsToAutomaticallyReplayAndVerify", objectsToAutomaticallyReplayAndVerify.size());
+		sizes.put("newSubstitutions", newSubstitutions.size());
+		sizes.put("classMocks", classMocks.size());
+		sizes.put("instanceMocks", instanceMocks.size());
+		sizes.put("substituteReturnValues", substituteReturnValues.size());
+		sizes.put("methodProxies", methodProxies.size());
+		sizes.put("additionalState", additionalState.size());
+		sizes.put("suppressConstructor", suppressConstructor.size());
+		sizes.put("suppressMethod", suppressMethod.size());
+		sizes.put("suppressField", suppressField.size());
+		sizes.put("suppressFieldTypes", suppressFieldTypes.size());
+		return sizes;
+	}
+
+	MethodInvocationControl getStaticMethodInvocationControl(Class<?> type) {
+		return classMocks.get(type);
+	}
+
+	MethodInvocationControl getInstanceMethodInvocationControl(Object instance) {
+		return instanceMocks.get(instance);
+	}
+
+	NewInvocationControl<?> getNewInstanceControl(Class<?> type) {
+		return newSubstitutions.get(type);
+	}
+
+	Object getAdditionalState(String key) {
+		return additionalState.get(key);
+	}
+
+	boolean hasAdditionalState(String key) {
+		return additionalState.containsKey(key);
+	}
+
+	InvocationHandler getMethodProxy(Method method) {
+		return methodProxies.get(method);
+	}
+
+	boolean shouldSuppressMethod(Method method) {
+		return suppressMethod.contains(method);
+	}
+
+	boolean shouldSuppressField(Field field) {
+		return suppressField.contains(field) || suppressFieldTypes.contains(field.getType().getName());
+	}
+
+	boolean shouldSuppressConstructor(Constructor<?> constructor) {
+		return suppressConstructor.contains(constructor);
+	}
+
+	boolean shouldStubMethod(Method method) {
+		return substituteReturnValues.containsKey(method);
+	}
+
+	Object getMethodToStub(Method method) {
+		return substituteReturnValues.get(method);
+	}
+}
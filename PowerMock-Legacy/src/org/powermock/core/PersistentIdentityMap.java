@@ -0,0 +1,377 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.core;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An immutable map that compares its keys by identity. Adding or removing an
+ * entry creates a new map that shares all but a few nodes with the old one
+ * (it's a hash array mapped trie), so unlike copying a map it doesn't cost
+ * more the more entries the map has. This lets the {@link MockRepository}
+ * publish a new snapshot for each of thousands of mocks without copying all
+ * mocks each time.
+ * <p>
+ * <code>null</code> keys aren't supported.
+ */
+final class PersistentIdentityMap<K, V> {
+
+	@SuppressWarnings("rawtypes")
+	private static final PersistentIdentityMap EMPTY = new PersistentIdentityMap(null, 0);
+
+	private static final Object NOT_FOUND = new Object();
+
+	private static final int BITS = 5;
+
+	private static final int MASK = (1 << BITS) - 1;
+
+	private final Node root;
+
+	private final int size;
+
+	private PersistentIdentityMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	@SuppressWarnings("unchecked")
+	static <K, V> PersistentIdentityMap<K, V> empty() {
+		return EMPTY;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	boolean containsKey(Object key) {
+		return root != null && root.find(key, hash(key), 0) != NOT_FOUND;
+	}
+
+	@SuppressWarnings("unchecked")
+	V get(Object key) {
+		if (root == null) {
+			return null;
+		}
+		final Object value = root.find(key, hash(key), 0);
+		return value == NOT_FOUND ? null : (V) value;
+	}
+
+	/**
+	 * @return A map with the entries of this map and <code>key</code> mapped
+	 *         to <code>value</code>.
+	 */
+	PersistentIdentityMap<K, V> with(K key, V value) {
+		if (key == null) {
+			throw new IllegalArgumentException("key cannot be null");
+		}
+		final boolean[] added = new boolean[1];
+		final Node node = root == null ? BitmapNode.EMPTY : root;
+		final Node newRoot = node.with(key, value, hash(key), 0, added);
+		if (newRoot == root) {
+			return this;
+		}
+		return new PersistentIdentityMap<K, V>(newRoot, added[0] ? size + 1 : size);
+	}
+
+	/**
+	 * @return A map with the entries of this map except for <code>key</code>.
+	 */
+	PersistentIdentityMap<K, V> without(Object key) {
+		if (root == null) {
+			return this;
+		}
+		final Node newRoot = root.without(key, hash(key), 0);
+		if (newRoot == root) {
+			return this;
+		} else if (newRoot == null) {
+			return empty();
+		}
+		return new PersistentIdentityMap<K, V>(newRoot, size - 1);
+	}
+
+	/**
+	 * @return The keys of this map. The set can't be modified and never
+	 *         changes since this map never changes.
+	 */
+	Set<K> keySet() {
+		return new AbstractSet<K>() {
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public Iterator<K> iterator() {
+				final List<Object> keys = new ArrayList<Object>(size);
+				if (root != null) {
+					root.collectKeys(keys);
+				}
+				final Iterator<Object> iterator = keys.iterator();
+				return new Iterator<K>() {
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					public K next() {
+						return (K) iterator.next();
+					}
+
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	private static int hash(Object key) {
+		return System.identityHashCode(key);
+	}
+
+	private static abstract class Node {
+		/**
+		 * @return The value of <code>key</code> or {@link #NOT_FOUND}.
+		 */
+		abstract Object find(Object key, int hash, int shift);
+
+		/**
+		 * @return This node if it already maps <code>key</code> to
+		 *         <code>value</code>, otherwise a copy with the mapping.
+		 *         <code>added[0]</code> is set if the key is new.
+		 */
+		abstract Node with(Object key, Object value, int hash, int shift, boolean[] added);
+
+		/**
+		 * @return This node if it doesn't contain <code>key</code>, otherwise
+		 *         a copy without it or <code>null</code> if the copy would be
+		 *         empty.
+		 */
+		abstract Node without(Object key, int hash, int shift);
+
+		abstract void collectKeys(List<Object> keys);
+	}
+
+	/**
+	 * A node with up to 32 entries, one for each value of the bits of the
+	 * hash at the node's level. An entry is either a key and its value or (if
+	 * the key slot is <code>null</code>) a node with the entries whose hashes
+	 * share these bits.
+	 */
+	private static final class BitmapNode extends Node {
+		static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+		private final int bitmap;
+
+		private final Object[] entries;
+
+		BitmapNode(int bitmap, Object[] entries) {
+			this.bitmap = bitmap;
+			this.entries = entries;
+		}
+
+		@Override
+		Object find(Object key, int hash, int shift) {
+			final int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return NOT_FOUND;
+			}
+			final int index = index(bit);
+			final Object entryKey = entries[index];
+			if (entryKey == null) {
+				return ((Node) entries[index + 1]).find(key, hash, shift + BITS);
+			}
+			return entryKey == key ? entries[index + 1] : NOT_FOUND;
+		}
+
+		@Override
+		Node with(Object key, Object value, int hash, int shift, boolean[] added) {
+			final int bit = bit(hash, shift);
+			final int index = index(bit);
+			if ((bitmap & bit) == 0) {
+				added[0] = true;
+				final Object[] newEntries = new Object[entries.length + 2];
+				System.arraycopy(entries, 0, newEntries, 0, index);
+				newEntries[index] = key;
+				newEntries[index + 1] = value;
+				System.arraycopy(entries, index, newEntries, index + 2, entries.length - index);
+				return new BitmapNode(bitmap | bit, newEntries);
+			}
+			final Object entryKey = entries[index];
+			final Object entryValue = entries[index + 1];
+			if (entryKey == null) {
+				final Node node = (Node) entryValue;
+				final Node newNode = node.with(key, value, hash, shift + BITS, added);
+				return newNode == node ? this : replace(index, null, newNode);
+			} else if (entryKey == key) {
+				return entryValue == value ? this : replace(index, key, value);
+			}
+			added[0] = true;
+			return replace(index, null, createNode(entryKey, entryValue, key, value, hash, shift + BITS));
+		}
+
+		@Override
+		Node without(Object key, int hash, int shift) {
+			final int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			final int index = index(bit);
+			final Object entryKey = entries[index];
+			if (entryKey == null) {
+				final Node node = (Node) entries[index + 1];
+				final Node newNode = node.without(key, hash, shift + BITS);
+				if (newNode == node) {
+					return this;
+				} else if (newNode != null) {
+					return replace(index, null, newNode);
+				}
+			} else if (entryKey != key) {
+				return this;
+			}
+			if (bitmap == bit) {
+				return null;
+			}
+			final Object[] newEntries = new Object[entries.length - 2];
+			System.arraycopy(entries, 0, newEntries, 0, index);
+			System.arraycopy(entries, index + 2, newEntries, index, entries.length - index - 2);
+			return new BitmapNode(bitmap & ~bit, newEntries);
+		}
+
+		@Override
+		void collectKeys(List<Object> keys) {
+			for (int i = 0; i < entries.length; i += 2) {
+				if (entries[i] == null) {
+					((Node) entries[i + 1]).collectKeys(keys);
+				} else {
+					keys.add(entries[i]);
+				}
+			}
+		}
+
+		private BitmapNode replace(int index, Object key, Object value) {
+			final Object[] newEntries = entries.clone();
+			newEntries[index] = key;
+			newEntries[index + 1] = value;
+			return new BitmapNode(bitmap, newEntries);
+		}
+
+		private int index(int bit) {
+			return 2 * Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		private static int bit(int hash, int shift) {
+			return 1 << ((hash >>> shift) & MASK);
+		}
+
+		private static Node createNode(Object key1, Object value1, Object key2, Object value2, int hash2, int shift) {
+			final int hash1 = hash(key1);
+			if (hash1 == hash2) {
+				return new CollisionNode(hash1, new Object[] { key1, value1, key2, value2 });
+			}
+			final boolean[] added = new boolean[1];
+			return EMPTY.with(key1, value1, hash1, shift, added).with(key2, value2, hash2, shift, added);
+		}
+	}
+
+	/**
+	 * A node with the entries of keys that have the same hash.
+	 */
+	private static final class CollisionNode extends Node {
+		private final int hash;
+
+		private final Object[] entries;
+
+		CollisionNode(int hash, Object[] entries) {
+			this.hash = hash;
+			this.entries = entries;
+		}
+
+		@Override
+		Object find(Object key, int hash, int shift) {
+			final int index = indexOf(key);
+			return index < 0 ? NOT_FOUND : entries[index + 1];
+		}
+
+		@Override
+		Node with(Object key, Object value, int hash, int shift, boolean[] added) {
+			if (hash != this.hash) {
+				// Push this node down one level below a node that also holds
+				// the new key.
+				return new BitmapNode(BitmapNode.bit(this.hash, shift), new Object[] { null, this }).with(key, value, hash, shift,
+						added);
+			}
+			final int index = indexOf(key);
+			if (index >= 0) {
+				if (entries[index + 1] == value) {
+					return this;
+				}
+				final Object[] newEntries = entries.clone();
+				newEntries[index + 1] = value;
+				return new CollisionNode(hash, newEntries);
+			}
+			added[0] = true;
+			final Object[] newEntries = new Object[entries.length + 2];
+			System.arraycopy(entries, 0, newEntries, 0, entries.length);
+			newEntries[entries.length] = key;
+			newEntries[entries.length + 1] = value;
+			return new CollisionNode(hash, newEntries);
+		}
+
+		@Override
+		Node without(Object key, int hash, int shift) {
+			final int index = indexOf(key);
+			if (index < 0) {
+				return this;
+			} else if (entries.length == 2) {
+				return null;
+			}
+			final Object[] newEntries = new Object[entries.length - 2];
+			System.arraycopy(entries, 0, newEntries, 0, index);
+			System.arraycopy(entries, index + 2, newEntries, index, entries.length - index - 2);
+			return new CollisionNode(hash, newEntries);
+		}
+
+		@Override
+		void collectKeys(List<Object> keys) {
+			for (int i = 0; i < entries.length; i += 2) {
+				keys.add(entries[i]);
+			}
+		}
+
+		private int indexOf(Object key) {
+			for (int i = 0; i < entries.length; i += 2) {
+				if (entries[i] == key) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+}
@@ -44,6 +44,40 @@ public class PowerMockSuite extends TestSuite {
 		this(null, testCases);
 	}
 
+	/**
+	 * Set the maximum number of chunks to execute in parallel. Each chunk
+	 * (i.e. each set of tests that share a mock class-loader) is executed by
+	 * one thread. The default is taken from the system property
+	 * <code>powermock.chunk.parallelism</code> and is <code>1</code> if the
+	 * property is not defined, which means that the chunks are executed one
+	 * after another by the current thread.
+	 * <p>
+	 * Note that mocks created when the suite is constructed (for example in
+	 * field initializers of the test cases) are not visible to tests executed
+	 * in parallel, create them in <code>setUp</code> instead.
+	 */
+	public void setParallelism(int parallelism) {
+		testChunker.setParallelism(parallelism);
+	}
+
+	/**
+	 * Set the number of forked JVM workers that should execute the test
+	 * classes of this suite. Use this for tests that modify global state that
+	 * the PowerMock class-loaders can't isolate, for example native libraries
+	 * or static state of classes loaded by the system class-loader. Each
+	 * worker runs one test class at a time and is reused for the next one.
+	 * The default is taken from the system property
+	 * <code>powermock.suite.forks</code> and is <code>0</code> if the
+	 * property is not defined, which means that the tests are executed in this
+	 * JVM.
+	 * <p>
+	 * The workers are started with the class-path of this JVM and must be able
+	 * to load the test classes from it.
+	 */
+	public void setForks(int forks) {
+		testChunker.setForks(forks);
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
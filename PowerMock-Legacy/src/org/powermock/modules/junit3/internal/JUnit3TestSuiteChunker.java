@@ -51,4 +51,20 @@ public interface JUnit3TestSuiteChunker extends TestSuiteChunker {
 	public int countTestCases();
 
 	public Enumeration<?> tests();
+
+	/**
+	 * Set the number of forked JVM workers that should execute the test
+	 * classes of the suite. <code>0</code> means that the tests are executed
+	 * in this JVM.
+	 * 
+	 * @param forks
+	 *            The number of forked workers, must not be negative.
+	 */
+	public void setForks(int forks);
+
+	/**
+	 * @return The number of forked JVM workers that executes the test classes
+	 *         of the suite, <code>0</code> if they're executed in this JVM.
+	 */
+	public int getForks();
 }
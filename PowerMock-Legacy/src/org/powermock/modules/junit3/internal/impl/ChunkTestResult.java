@@ -0,0 +1,119 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.modules.junit3.internal.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.Test;
+import junit.framework.TestResult;
+
+/**
+ * A {@link TestResult} used by a chunk that is executed in parallel with other
+ * chunks. Listeners added to this result (such as the
+ * {@link PowerMockJUnit3TestListener} of the chunk) are notified directly by
+ * the thread executing the chunk. The events of each test are buffered and
+ * forwarded to the shared target result when the test has ended, all at once
+ * and synchronized on the target. This way the start, errors, failures and end
+ * of a test are never interleaved with the events of tests in other chunks.
+ */
+public class ChunkTestResult extends TestResult {
+
+	private final TestResult target;
+
+	private final List<Problem> problems = new ArrayList<Problem>();
+
+	private Test currentTest;
+
+	public ChunkTestResult(TestResult target) {
+		if (target == null) {
+			throw new IllegalArgumentException("target cannot be null");
+		}
+		this.target = target;
+	}
+
+	@Override
+	public void startTest(Test test) {
+		super.startTest(test);
+		currentTest = test;
+	}
+
+	@Override
+	public synchronized void addError(Test test, Throwable t) {
+		super.addError(test, t);
+		problems.add(new Problem(test, t, false));
+		if (currentTest == null) {
+			flush();
+		}
+	}
+
+	@Override
+	public synchronized void addFailure(Test test, AssertionFailedError t) {
+		super.addFailure(test, t);
+		problems.add(new Problem(test, t, true));
+		if (currentTest == null) {
+			flush();
+		}
+	}
+
+	@Override
+	public void endTest(Test test) {
+		super.endTest(test);
+		synchronized (target) {
+			target.startTest(test);
+			flush();
+			target.endTest(test);
+		}
+		currentTest = null;
+	}
+
+	@Override
+	public synchronized boolean shouldStop() {
+		return target.shouldStop();
+	}
+
+	@Override
+	public synchronized void stop() {
+		super.stop();
+		target.stop();
+	}
+
+	private void flush() {
+		synchronized (target) {
+			for (Problem problem : problems) {
+				if (problem.failure) {
+					target.addFailure(problem.test, (AssertionFailedError) problem.throwable);
+				} else {
+					target.addError(problem.test, problem.throwable);
+				}
+			}
+		}
+		problems.clear();
+	}
+
+	private static class Problem {
+		private final Test test;
+		private final Throwable throwable;
+		private final boolean failure;
+
+		public Problem(Test test, Throwable throwable, boolean failure) {
+			this.test = test;
+			this.throwable = throwable;
+			this.failure = failure;
+		}
+	}
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.modules.junit3.internal.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.Test;
+import junit.framework.TestResult;
+
+import org.powermock.tests.utils.impl.ChunkSharder;
+import org.powermock.tests.utils.impl.ChunkTimingHistory;
+import org.powermock.tests.utils.impl.ParallelChunkExecutor;
+
+/**
+ * Runs the chunks of a suite in forked JVM workers. This isolates tests that
+ * modify global state (such as native libraries or static state of classes
+ * loaded by the system class-loader) that a mock class-loader can't isolate.
+ * Each worker is a {@link ForkedSuiteWorker} that communicates with this JVM
+ * over its standard input and output, so no network connection is involved.
+ * Workers are reused for several test classes and the events of the tests are
+ * merged back into the {@link TestResult} of the suite.
+ * <p>
+ * The chunks to run are selected by this JVM, so the workers only run the
+ * chunks they are told to run. The workers are started with the class-path of
+ * this JVM (the <code>java.class.path</code> system property) and the
+ * <code>powermock.*</code> system properties, except for the ones that
+ * control forking, sharding and the timing history which are handled by this
+ * JVM.
+ */
+public class ForkedSuiteExecutor {
+
+	/**
+	 * The system property that defines the default number of forked workers.
+	 */
+	public static final String FORKS_PROPERTY = "powermock.suite.forks";
+
+	// The properties that only apply to this JVM
+	private static final List<String> PROPERTIES_NOT_FORWARDED = Arrays.asList(FORKS_PROPERTY, ChunkSharder.SHARD_INDEX_PROPERTY,
+			ChunkSharder.SHARD_COUNT_PROPERTY, ChunkSharder.SHARD_TIMINGS_PROPERTY, ChunkTimingHistory.TIMINGS_PROPERTY);
+
+	private final int forks;
+
+	public ForkedSuiteExecutor(int forks) {
+		if (forks < 1) {
+			throw new IllegalArgumentException("forks must be at least 1");
+		}
+		this.forks = forks;
+	}
+
+	/**
+	 * @return The number of forked workers according to the
+	 *         {@value #FORKS_PROPERTY} system property, <code>0</code> (no
+	 *         forking) if not defined.
+	 */
+	public static int getDefaultForks() {
+		return Math.max(0, Integer.getInteger(FORKS_PROPERTY, 0));
+	}
+
+	/**
+	 * Run chunks of the supplied test classes and report their tests to
+	 * <code>result</code>.
+	 * 
+	 * @param chunkKeysByClassName
+	 *            The keys of the chunks to run (see
+	 *            {@link ChunkSharder#getChunkKey(Class, org.powermock.tests.utils.TestChunk)}
+	 *            ), by the name of their test class.
+	 */
+	public void run(Map<String, List<String>> chunkKeysByClassName, final TestResult result) {
+		final LinkedList<Map.Entry<String, List<String>>> testClasses = new LinkedList<Map.Entry<String, List<String>>>(
+				chunkKeysByClassName.entrySet());
+		final List<Runnable> workers = new ArrayList<Runnable>();
+		for (int i = 0; i < Math.min(forks, testClasses.size()); i++) {
+			workers.add(new Runnable() {
+				public void run() {
+					runTestClasses(testClasses, result);
+				}
+			});
+		}
+		// The tests are executed by the workers, not by the threads of this JVM
+		new ParallelChunkExecutor(Math.max(1, workers.size()), false).execute(workers);
+	}
+
+	/**
+	 * Called when a worker has finished a chunk. Does nothing by default.
+	 * 
+	 * @param chunkKey
+	 *            The key of the chunk.
+	 * @param setupMillis
+	 *            The time it took the worker to create the class-loader and
+	 *            delegate of the chunk.
+	 * @param runMillis
+	 *            The time it took the worker to run the tests of the chunk.
+	 */
+	protected void chunkFinished(String chunkKey, long setupMillis, long runMillis) {
+	}
+
+	private void runTestClasses(LinkedList<Map.Entry<String, List<String>>> testClasses, TestResult result) {
+		final ChunkTestResult workerResult = new ChunkTestResult(result);
+		ForkedWorker worker = null;
+		try {
+			Map.Entry<String, List<String>> testClass;
+			while ((testClass = nextTestClass(testClasses)) != null && !result.shouldStop()) {
+				if (worker == null) {
+					worker = new ForkedWorker();
+				}
+				if (!worker.runTestClass(testClass.getKey(), testClass.getValue(), workerResult)) {
+					// The worker died, start a new one for the remaining classes
+					worker.destroy();
+					worker = null;
+				}
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to start a forked PowerMock worker.", e);
+		} finally {
+			if (worker != null) {
+				worker.exit();
+			}
+		}
+	}
+
+	private static Map.Entry<String, List<String>> nextTestClass(LinkedList<Map.Entry<String, List<String>>> testClasses) {
+		synchronized (testClasses) {
+			return testClasses.isEmpty() ? null : testClasses.removeFirst();
+		}
+	}
+
+	private static String[] getWorkerCommand() {
+		final List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		for (Iterator<Map.Entry<Object, Object>> iterator = System.getProperties().entrySet().iterator(); iterator.hasNext();) {
+			final Map.Entry<Object, Object> property = iterator.next();
+			final String key = String.valueOf(property.getKey());
+			if (key.startsWith("powermock.") && !PROPERTIES_NOT_FORWARDED.contains(key)) {
+				command.add("-D" + key + "=" + property.getValue());
+			}
+		}
+		command.add(ForkedSuiteWorker.class.getName());
+		return command.toArray(new String[command.size()]);
+	}
+
+	/**
+	 * A forked JVM running a {@link ForkedSuiteWorker}.
+	 */
+	private class ForkedWorker {
+		private final Process process;
+		private final PrintWriter commands;
+		private final BufferedReader events;
+
+		public ForkedWorker() throws IOException {
+			process = Runtime.getRuntime().exec(getWorkerCommand());
+			commands = new PrintWriter(new OutputStreamWriter(process.getOutputStream(), ForkedSuiteWorker.ENCODING));
+			events = new BufferedReader(new InputStreamReader(process.getInputStream(), ForkedSuiteWorker.ENCODING));
+			new StreamPump(process.getErrorStream(), System.err).start();
+		}
+
+		/**
+		 * Run chunks of a test class in the worker and report the events of
+		 * their tests to <code>result</code>.
+		 * 
+		 * @return <code>false</code> if the worker died before all tests were
+		 *         executed.
+		 */
+		public boolean runTestClass(String className, List<String> chunkKeys, TestResult result) {
+			Test currentTest = null;
+			try {
+				final StringBuilder command = new StringBuilder(ForkedSuiteWorker.RUN).append('\t').append(
+						ForkedSuiteWorker.escape(className));
+				for (String chunkKey : chunkKeys) {
+					command.append('\t').append(ForkedSuiteWorker.escape(chunkKey));
+				}
+				commands.println(command);
+				commands.flush();
+				String line;
+				while ((line = events.readLine()) != null) {
+					final String[] event = ForkedSuiteWorker.split(line);
+					final String type = event[0];
+					if (ForkedSuiteWorker.DONE.equals(type)) {
+						return true;
+					} else if (ForkedSuiteWorker.TIMING.equals(type)) {
+						chunkFinished(event[1], Long.parseLong(event[2]), Long.parseLong(event[3]));
+						continue;
+					}
+					final Test test = currentTest != null && currentTest.toString().equals(event[1]) ? currentTest : new ForkedTest(event[1]);
+					if (ForkedSuiteWorker.START.equals(type)) {
+						currentTest = test;
+						result.startTest(test);
+					} else if (ForkedSuiteWorker.FAILURE.equals(type)) {
+						result.addFailure(test, new ForkedFailure(event[2], event[3]));
+					} else if (ForkedSuiteWorker.ERROR.equals(type)) {
+						result.addError(test, new ForkedError(event[2], event[3]));
+					} else if (ForkedSuiteWorker.END.equals(type)) {
+						result.endTest(test);
+						currentTest = null;
+					}
+				}
+			} catch (IOException e) {
+				// Handled as if the worker died
+			}
+			if (currentTest == null) {
+				currentTest = new ForkedTest(className);
+				result.startTest(currentTest);
+			}
+			result.addError(currentTest, new ForkedError("The forked PowerMock worker exited unexpectedly while running "
+					+ className + ".", ""));
+			result.endTest(currentTest);
+			return false;
+		}
+
+		public void exit() {
+			commands.println(ForkedSuiteWorker.EXIT);
+			commands.flush();
+			try {
+				process.waitFor();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				process.destroy();
+			}
+		}
+
+		public void destroy() {
+			process.destroy();
+		}
+	}
+
+	/**
+	 * Copies the output of a worker to a stream of this JVM.
+	 */
+	private static class StreamPump extends Thread {
+		private final InputStream in;
+		private final PrintStream out;
+
+		public StreamPump(InputStream in, PrintStream out) {
+			super("PowerMock forked worker output");
+			setDaemon(true);
+			this.in = in;
+			this.out = out;
+		}
+
+		@Override
+		public void run() {
+			final byte[] buffer = new byte[4096];
+			try {
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+			} catch (IOException e) {
+				// The worker is gone
+			}
+		}
+	}
+
+	/**
+	 * A test executed by a forked worker, identified by its name.
+	 */
+	private static class ForkedTest implements Test {
+		private final String name;
+
+		public ForkedTest(String name) {
+			this.name = name;
+		}
+
+		public int countTestCases() {
+			return 1;
+		}
+
+		public void run(TestResult result) {
+			throw new UnsupportedOperationException("Test " + name + " can only be executed by a forked worker.");
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * A failure of a test executed by a forked worker. Prints the stack trace
+	 * of the original failure.
+	 */
+	private static class ForkedFailure extends AssertionFailedError {
+		private static final long serialVersionUID = 4620924342386045082L;
+
+		private final String stackTrace;
+
+		public ForkedFailure(String message, String stackTrace) {
+			super(message.length() == 0 ? null : message);
+			this.stackTrace = stackTrace;
+		}
+
+		@Override
+		public void printStackTrace(PrintStream s) {
+			if (stackTrace.length() == 0) {
+				super.printStackTrace(s);
+			} else {
+				s.print(stackTrace);
+			}
+		}
+
+		@Override
+		public void printStackTrace(PrintWriter s) {
+			if (stackTrace.length() == 0) {
+				super.printStackTrace(s);
+			} else {
+				s.print(stackTrace);
+			}
+		}
+	}
+
+	/**
+	 * An error of a test executed by a forked worker. Prints the stack trace of
+	 * the original error.
+	 */
+	private static class ForkedError extends RuntimeException {
+		private static final long serialVersionUID = -2931587394614523478L;
+
+		private final String stackTrace;
+
+		public ForkedError(String message, String stackTrace) {
+			super(message.length() == 0 ? null : message);
+			this.stackTrace = stackTrace;
+		}
+
+		@Override
+		public void printStackTrace(PrintStream s) {
+			if (stackTrace.length() == 0) {
+				super.printStackTrace(s);
+			} else {
+				s.print(stackTrace);
+			}
+		}
+
+		@Override
+		public void printStackTrace(PrintWriter s) {
+			if (stackTrace.length() == 0) {
+				super.printStackTrace(s);
+			} else {
+				s.print(stackTrace);
+			}
+		}
+	}
+}
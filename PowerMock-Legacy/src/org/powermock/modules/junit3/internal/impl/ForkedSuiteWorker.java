@@ -0,0 +1,255 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.modules.junit3.internal.impl;
+
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestListener;
+import junit.framework.TestResult;
+
+import org.powermock.modules.junit3.PowerMockSuite;
+import org.powermock.tests.utils.impl.ChunkSharder;
+
+/**
+ * The main class of a forked JVM worker started by the
+ * {@link ForkedSuiteExecutor}. The worker reads commands from its standard
+ * input, one per line, and runs the requested chunks of a test class the same
+ * way as a {@link PowerMockSuite}. The events of the tests are written to the standard
+ * output, again one per line. The fields of a line are separated by tabs and
+ * escaped using {@link #escape(String)}.
+ * <p>
+ * Commands:
+ * <ul>
+ * <li><code>RUN &lt;test class name&gt; &lt;chunk key&gt;...</code> - Run
+ * the tests of the chunks with the supplied keys (see
+ * {@link ChunkSharder#getChunkKey(Class, org.powermock.tests.utils.TestChunk)}
+ * ) in the test class, answered by the events of the tests followed by
+ * <code>DONE</code>.</li>
+ * <li><code>EXIT</code> - Terminate the worker.</li>
+ * </ul>
+ * Events:
+ * <ul>
+ * <li><code>START &lt;test&gt;</code></li>
+ * <li><code>FAILURE &lt;test&gt; &lt;message&gt; &lt;stack trace&gt;</code></li>
+ * <li><code>ERROR &lt;test&gt; &lt;message&gt; &lt;stack trace&gt;</code></li>
+ * <li><code>END &lt;test&gt;</code></li>
+ * <li><code>TIMING &lt;chunk key&gt; &lt;setup millis&gt; &lt;run millis&gt;</code></li>
+ * <li><code>DONE</code></li>
+ * </ul>
+ * Anything the tests print to the standard output is redirected to the
+ * standard error so that it doesn't interfere with the protocol.
+ */
+public class ForkedSuiteWorker {
+
+	static final String RUN = "RUN";
+	static final String EXIT = "EXIT";
+	static final String START = "START";
+	static final String FAILURE = "FAILURE";
+	static final String ERROR = "ERROR";
+	static final String END = "END";
+	static final String TIMING = "TIMING";
+	static final String DONE = "DONE";
+
+	static final String ENCODING = "UTF-8";
+
+	private final PrintStream protocol;
+
+	ForkedSuiteWorker(PrintStream protocol) {
+		this.protocol = protocol;
+	}
+
+	public static void main(String[] args) throws Exception {
+		final PrintStream protocol = new PrintStream(new FileOutputStream(FileDescriptor.out), false, ENCODING);
+		System.setOut(System.err);
+		final ForkedSuiteWorker worker = new ForkedSuiteWorker(protocol);
+		final BufferedReader commands = new BufferedReader(new InputStreamReader(System.in, ENCODING));
+		String line;
+		while ((line = commands.readLine()) != null) {
+			final String[] command = split(line);
+			if (RUN.equals(command[0])) {
+				worker.runTestClass(command[1], Arrays.asList(command).subList(2, command.length));
+			} else if (EXIT.equals(command[0])) {
+				break;
+			} else {
+				throw new IllegalStateException("Unknown command: " + line);
+			}
+		}
+		System.exit(0);
+	}
+
+	void runTestClass(String className, List<String> chunkKeys) {
+		final TestResult result = new TestResult();
+		result.addListener(new ProtocolListener());
+		try {
+			final Class<? extends TestCase> testClass = Class.forName(className).asSubclass(TestCase.class);
+			final ForkedChunker chunker = new ForkedChunker(testClass, chunkKeys);
+			chunker.setParallelism(1);
+			chunker.setForks(0);
+			chunker.run(result);
+		} catch (Throwable e) {
+			// The suite could not be created, report it as an error of the class
+			write(START, className);
+			write(ERROR, className, getMessage(e), getStackTrace(e));
+			write(END, className);
+		}
+		write(DONE);
+		protocol.flush();
+	}
+
+	private void write(String... fields) {
+		final StringBuilder line = new StringBuilder();
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0) {
+				line.append('\t');
+			}
+			line.append(escape(fields[i]));
+		}
+		protocol.println(line);
+	}
+
+	private static String getMessage(Throwable t) {
+		return t.getMessage() == null ? "" : t.getMessage();
+	}
+
+	private static String getStackTrace(Throwable t) {
+		final StringWriter stackTrace = new StringWriter();
+		t.printStackTrace(new PrintWriter(stackTrace));
+		return stackTrace.toString();
+	}
+
+	/**
+	 * Escape backslashes, tabs and line breaks so that the value can be sent
+	 * as a field of a single line.
+	 */
+	static String escape(String value) {
+		final StringBuilder escaped = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+			case '\\':
+				escaped.append("\\\\");
+				break;
+			case '\t':
+				escaped.append("\\t");
+				break;
+			case '\n':
+				escaped.append("\\n");
+				break;
+			case '\r':
+				escaped.append("\\r");
+				break;
+			default:
+				escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+	/**
+	 * Split a line into its fields and unescape them.
+	 * 
+	 * @see #escape(String)
+	 */
+	static String[] split(String line) {
+		final String[] fields = line.split("\t", -1);
+		for (int i = 0; i < fields.length; i++) {
+			fields[i] = unescape(fields[i]);
+		}
+		return fields;
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+		final StringBuilder unescaped = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				c = value.charAt(++i);
+				if (c == 't') {
+					c = '\t';
+				} else if (c == 'n') {
+					c = '\n';
+				} else if (c == 'r') {
+					c = '\r';
+				}
+			}
+			unescaped.append(c);
+		}
+		return unescaped.toString();
+	}
+
+	/**
+	 * Runs the chunks requested by the parent JVM and reports how long they
+	 * took, since the parent keeps the timing history.
+	 */
+	private class ForkedChunker extends JUnit3TestSuiteChunkerImpl {
+		private final Set<String> chunkKeys;
+
+		public ForkedChunker(Class<? extends TestCase> testClass, List<String> chunkKeys) throws Exception {
+			super(testClass);
+			this.chunkKeys = new HashSet<String>(chunkKeys);
+		}
+
+		@Override
+		protected boolean[] getTestChunksInShard() {
+			final List<String> allChunkKeys = getTestChunkKeys();
+			final boolean[] chunksToRun = new boolean[allChunkKeys.size()];
+			for (int i = 0; i < chunksToRun.length; i++) {
+				chunksToRun[i] = chunkKeys.contains(allChunkKeys.get(i));
+			}
+			return chunksToRun;
+		}
+
+		@Override
+		protected void recordDelegateTiming(int index, long setupMillis, long runMillis) {
+			write(TIMING, ChunkSharder.getChunkKey(getDelegateTestClass(index), getDelegateChunk(index)), String.valueOf(setupMillis),
+					String.valueOf(runMillis));
+		}
+	}
+
+	private class ProtocolListener implements TestListener {
+		public void startTest(Test test) {
+			write(START, test.toString());
+		}
+
+		public void addFailure(Test test, AssertionFailedError t) {
+			write(FAILURE, test.toString(), getMessage(t), getStackTrace(t));
+		}
+
+		public void addError(Test test, Throwable t) {
+			write(ERROR, test.toString(), getMessage(t), getStackTrace(t));
+		}
+
+		public void endTest(Test test) {
+			write(END, test.toString());
+		}
+	}
+}
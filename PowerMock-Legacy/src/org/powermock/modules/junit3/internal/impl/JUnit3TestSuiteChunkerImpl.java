@@ -18,32 +18,55 @@ package org.powermock.modules.junit3.internal.impl;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestResult;
 import junit.framework.TestSuite;
 
+import org.powermock.core.MockRepository;
 import org.powermock.core.spi.PowerMockTestListener;
 import org.powermock.modules.junit3.internal.JUnit3TestSuiteChunker;
 import org.powermock.modules.junit3.internal.PowerMockJUnit3RunnerDelegate;
 import org.powermock.tests.utils.TestChunk;
 import org.powermock.tests.utils.impl.AbstractTestSuiteChunkerImpl;
-import org.powermock.tests.utils.impl.MockPolicyInitializerImpl;
+import org.powermock.tests.utils.impl.ChunkSharder;
+import org.powermock.tests.utils.impl.ParallelChunkExecutor;
+import org.powermock.tests.utils.impl.PowerMockDiagnostics;
 
 public class JUnit3TestSuiteChunkerImpl extends AbstractTestSuiteChunkerImpl<PowerMockJUnit3RunnerDelegate> implements
 		JUnit3TestSuiteChunker {
 
 	private String name;
 
+	private int forks = ForkedSuiteExecutor.getDefaultForks();
+
 	public JUnit3TestSuiteChunkerImpl(Class<? extends TestCase>... testClasses) throws Exception {
 		super(testClasses);
+		createTestDelegators();
+	}
+
+	public JUnit3TestSuiteChunkerImpl(String name, Class<? extends TestCase>... testClasses) throws Exception {
+		this(testClasses);
+		this.name = name;
+	}
+
+	JUnit3TestSuiteChunkerImpl(Class<? extends TestCase> testClass) throws Exception {
+		super(testClass);
+		createTestDelegators();
+	}
+
+	private void createTestDelegators() throws Exception {
 		try {
-			for (Class<? extends TestCase> testClass : testClasses) {
+			for (Class<?> testClass : getTestClasses()) {
 				createTestDelegators(testClass, getTestChunksEntries(testClass));
 			}
 		} catch (Exception e) {
@@ -56,11 +79,6 @@ public class JUnit3TestSuiteChunkerImpl extends AbstractTestSuiteChunkerImpl<Pow
 		}
 	}
 
-	public JUnit3TestSuiteChunkerImpl(String name, Class<? extends TestCase>... testClasses) throws Exception {
-		this(testClasses);
-		this.name = name;
-	}
-
 	/**
 	 * {@inheritDoc}
 	 */
@@ -94,10 +112,12 @@ public class JUnit3TestSuiteChunkerImpl extends AbstractTestSuiteChunkerImpl<Pow
 	 */
 	public int getTestCount() {
 		if (testCount == NOT_INITIALIZED) {
-			testCount = 0;
-			for (PowerMockJUnit3RunnerDelegate delegate : delegates) {
-				testCount += delegate.testCount();
+			// Counted from the chunks to avoid creating the delegates
+			int count = 0;
+			for (int i = 0; i < delegates.size(); i++) {
+				count += getDelegateChunk(i).getTestMethodsToBeExecutedByThisClassloader().size();
 			}
+			testCount = count;
 		}
 		return testCount;
 	}
@@ -141,13 +161,30 @@ public class JUnit3TestSuiteChunkerImpl extends AbstractTestSuiteChunkerImpl<Pow
 		addTestClassToSuite(testClass);
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public void setForks(int forks) {
+		if (forks < 0) {
+			throw new IllegalArgumentException("forks cannot be negative");
+		}
+		this.forks = forks;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public int getForks() {
+		return forks;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	public int countTestCases() {
 		int count = 0;
-		for (PowerMockJUnit3RunnerDelegate delegate : delegates) {
-			count += delegate.countTestCases();
+		for (int i = 0; i < delegates.size(); i++) {
+			count += getDelegateChunk(i).getTestMethodsToBeExecutedByThisClassloader().size();
 		}
 		return count;
 	}
@@ -155,48 +192,149 @@ public class JUnit3TestSuiteChunkerImpl extends AbstractTestSuiteChunkerImpl<Pow
 	/**
 	 * {@inheritDoc}
 	 */
-	public void run(TestResult result) {
-		final Iterator<TestChunk> iterator = getChunkIterator();
-		for (PowerMockJUnit3RunnerDelegate delegate : delegates) {
-			TestChunk next = iterator.next();
-			final PowerMockJUnit3TestListener listener = new PowerMockJUnit3TestListener(next.getClassLoader());
-			result.addListener(listener);
-			// Initialize mock policies for each test
-			new MockPolicyInitializerImpl(delegate.getTestClass()).initialize(this.getClass().getClassLoader());
-			delegate.run(result);
-			result.removeListener(listener);
+	public void run(final TestResult result) {
+		if (delegates.size() != getChunkSize()) {
+			throw new IllegalStateException("Internal error: There must be an equal number of suites and delegates.");
 		}
+		final boolean[] chunksInShard = getTestChunksInShard();
+		for (int i = 0; i < delegates.size(); i++) {
+			if (!chunksInShard[i]) {
+				// Executed by another node
+				releaseDelegate(i);
+			}
+		}
+		if (forks > 0) {
+			runForked(chunksInShard, result);
+		} else {
+			runInThisJvm(chunksInShard, result);
+		}
+		saveDelegateTimings();
+		PowerMockDiagnostics.suiteFinished(name == null ? Arrays.toString(getTestClasses()) : name);
+	}
+
+	private void runForked(boolean[] chunksInShard, TestResult result) {
+		final Map<String, List<String>> chunkKeysByClassName = new LinkedHashMap<String, List<String>>();
+		final Map<String, Integer> delegateIndexes = new HashMap<String, Integer>();
+		for (int i = 0; i < delegates.size(); i++) {
+			if (chunksInShard[i]) {
+				final String className = getDelegateTestClass(i).getName();
+				List<String> chunkKeys = chunkKeysByClassName.get(className);
+				if (chunkKeys == null) {
+					chunkKeys = new ArrayList<String>();
+					chunkKeysByClassName.put(className, chunkKeys);
+				}
+				final String chunkKey = ChunkSharder.getChunkKey(getDelegateTestClass(i), getDelegateChunk(i));
+				chunkKeys.add(chunkKey);
+				delegateIndexes.put(chunkKey, i);
+				// The delegate is created by the worker
+				releaseDelegate(i);
+			}
+		}
+		new ForkedSuiteExecutor(forks) {
+			@Override
+			protected void chunkFinished(String chunkKey, long setupMillis, long runMillis) {
+				final Integer delegateIndex = delegateIndexes.get(chunkKey);
+				if (delegateIndex != null) {
+					recordDelegateTiming(delegateIndex, setupMillis, runMillis);
+				}
+			}
+		}.run(chunkKeysByClassName, result);
+	}
+
+	private void runInThisJvm(boolean[] chunksInShard, final TestResult result) {
+		final ParallelChunkExecutor chunkExecutor = new ParallelChunkExecutor(getParallelism());
+		final boolean parallel = chunkExecutor.isParallel();
+		final List<Runnable> chunks = new ArrayList<Runnable>();
+		for (final int delegateIndex : getDelegateExecutionOrder(chunksInShard, parallel)) {
+			final TestChunk next = getDelegateChunk(delegateIndex);
+			chunks.add(new Runnable() {
+				public void run() {
+					if (parallel && result.shouldStop()) {
+						return;
+					}
+					/*
+					 * The mock policies of the chunk are initialized when its
+					 * class loader is created, so the class loader is created
+					 * in a scope of its own, which the scope of each test
+					 * starts from. Otherwise the settings of parallel chunks
+					 * would end up in the global scope.
+					 */
+					MockRepository.enterTestScope();
+					try {
+						final long setupStarted = System.currentTimeMillis();
+						// The class loader of the chunk is created right before it's executed
+						final PowerMockJUnit3RunnerDelegate delegate = getDelegate(delegateIndex);
+						// Each parallel chunk reports to the result through its own adapter
+						final TestResult chunkResult = parallel ? new ChunkTestResult(result) : result;
+						final PowerMockJUnit3TestListener listener = new PowerMockJUnit3TestListener(next.getClassLoader());
+						chunkResult.addListener(listener);
+						try {
+							final long runStarted = System.currentTimeMillis();
+							delegate.run(chunkResult);
+							recordDelegateTiming(delegateIndex, runStarted - setupStarted, System.currentTimeMillis() - runStarted);
+						} finally {
+							chunkResult.removeListener(listener);
+						}
+						PowerMockDiagnostics.chunkFinished(delegate.getTestClass(), next);
+						releaseDelegate(delegateIndex);
+					} finally {
+						MockRepository.exitTestScope();
+					}
+				}
+			});
+		}
+		chunkExecutor.execute(chunks);
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	public void runTest(Test test, TestResult result) {
-		final Iterator<TestChunk> iterator = getChunkIterator();
-		for (PowerMockJUnit3RunnerDelegate delegate : delegates) {
-			TestChunk next = iterator.next();
-			final PowerMockJUnit3TestListener listener = new PowerMockJUnit3TestListener(next.getClassLoader());
-			result.addListener(listener);
+		final int delegateIndex = getDelegateIndexOf(test);
+		if (delegateIndex < 0) {
+			// Not a test of this suite
+			test.run(result);
+			return;
+		}
+		// The delegate is kept until the chunk is executed by run(TestResult)
+		final PowerMockJUnit3RunnerDelegate delegate = getDelegate(delegateIndex);
+		final PowerMockJUnit3TestListener listener = new PowerMockJUnit3TestListener(getDelegateChunk(delegateIndex).getClassLoader());
+		result.addListener(listener);
+		try {
 			delegate.runTest(test, result);
+		} finally {
 			result.removeListener(listener);
 		}
 	}
 
-	private Iterator<TestChunk> getChunkIterator() {
-		List<TestChunk> entrySet = getTestChunks();
-		Iterator<TestChunk> iterator = entrySet.iterator();
-
-		if (delegates.size() != getChunkSize()) {
-			throw new IllegalStateException("Internal error: There must be an equal number of suites and delegates.");
+	/**
+	 * @return The index of the delegate whose chunk contains the test, or
+	 *         <code>-1</code> if the test is not part of this suite.
+	 */
+	private int getDelegateIndexOf(Test test) {
+		if (!(test instanceof TestCase)) {
+			return -1;
+		}
+		final String testClassName = test.getClass().getName();
+		final String testName = ((TestCase) test).getName();
+		for (int i = 0; i < delegates.size(); i++) {
+			if (getDelegateTestClass(i).getName().equals(testClassName)) {
+				for (Method method : getDelegateChunk(i).getTestMethodsToBeExecutedByThisClassloader()) {
+					if (method.getName().equals(testName)) {
+						return i;
+					}
+				}
+			}
 		}
-		return iterator;
+		return -1;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	public Test testAt(int index) {
-		return delegates.get(getDelegatorIndex(index)).testAt(getInternalTestIndex(index));
+		// The delegate is kept until the chunk is executed by run(TestResult)
+		return getDelegate(getDelegatorIndex(index)).testAt(getInternalTestIndex(index));
 	}
 
 	/**
@@ -217,23 +355,23 @@ public class JUnit3TestSuiteChunkerImpl extends AbstractTestSuiteChunkerImpl<Pow
 	 * {@inheritDoc}
 	 */
 	public Enumeration<?> tests() {
-		final List<Object> tests = new LinkedList<Object>();
-		for (PowerMockJUnit3RunnerDelegate delegate : delegates) {
-			final Enumeration<?> delegateTests = delegate.tests();
+		final List<Object> tests = new ArrayList<Object>();
+		for (int i = 0; i < delegates.size(); i++) {
+			final Enumeration<?> delegateTests = getDelegate(i).tests();
 			while (delegateTests.hasMoreElements()) {
 				tests.add(delegateTests.nextElement());
 			}
 		}
 
 		Enumeration<?> allTests = new Enumeration<Object>() {
-			private volatile int count = 0;
+			private final Iterator<Object> iterator = tests.iterator();
 
 			public boolean hasMoreElements() {
-				return count != tests.size();
+				return iterator.hasNext();
 			}
 
 			public Object nextElement() {
-				return tests.get(count++);
+				return iterator.next();
 			}
 		};
 
@@ -31,10 +31,23 @@ import org.powermock.core.MockRepository;
  * 
  */
 public class PowerMockJUnit3TestListener implements TestListener {
-	private ClassLoader mockClassLoader;
+	/*
+	 * The methods of the MockRepository loaded by the mock class-loader are
+	 * looked up once since they're invoked for each test.
+	 */
+	private final Method clearMethod;
+	private final Method enterTestScopeMethod;
+	private final Method exitTestScopeMethod;
 
 	public PowerMockJUnit3TestListener(ClassLoader mockClassLoader) {
-		this.mockClassLoader = mockClassLoader;
+		try {
+			Class<?> powerMockClass = mockClassLoader.loadClass(MockRepository.class.getName());
+			clearMethod = getMockRepositoryMethod(powerMockClass, "clear");
+			enterTestScopeMethod = getMockRepositoryMethod(powerMockClass, "enterTestScope");
+			exitTestScopeMethod = getMockRepositoryMethod(powerMockClass, "exitTestScope");
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	/**
@@ -51,21 +64,33 @@ public class PowerMockJUnit3TestListener implements TestListener {
 
 	public void endTest(Test test) {
 		try {
-			Class<?> powerMockClass = mockClassLoader.loadClass(MockRepository.class.getName());
-			Method method = powerMockClass.getDeclaredMethod("clear");
-			if (method == null) {
-				throw new IllegalStateException("Method clearState was not found in " + MockRepository.class);
-			}
-			method.setAccessible(true);
-			method.invoke(powerMockClass);
-		} catch (Exception e) {
-			throw new RuntimeException(e);
+			invokeMockRepositoryMethod(clearMethod);
+		} finally {
+			invokeMockRepositoryMethod(exitTestScopeMethod);
 		}
 	}
 
 	/**
-	 * Does nothing.
+	 * Enters the test scope of the mock repository (if it is test scoped).
 	 */
 	public void startTest(Test test) {
+		invokeMockRepositoryMethod(enterTestScopeMethod);
+	}
+
+	private static Method getMockRepositoryMethod(Class<?> powerMockClass, String methodName) throws NoSuchMethodException {
+		Method method = powerMockClass.getDeclaredMethod(methodName);
+		if (method == null) {
+			throw new IllegalStateException("Method " + methodName + " was not found in " + MockRepository.class);
+		}
+		method.setAccessible(true);
+		return method;
+	}
+
+	private void invokeMockRepositoryMethod(Method method) {
+		try {
+			method.invoke(null);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
 	}
 }
@@ -26,6 +26,13 @@ import org.junit.runner.notification.RunNotifier;
 import org.powermock.modules.junit4.common.internal.JUnit4TestSuiteChunker;
 import org.powermock.modules.junit4.common.internal.PowerMockJUnitRunnerDelegate;
 
+/**
+ * Base class of the JUnit 4 PowerMock runners. The chunks of the test class
+ * are executed one after another unless the
+ * {@value org.powermock.tests.utils.impl.ParallelChunkExecutor#PARALLELISM_PROPERTY}
+ * system property is set to a value greater than one, in which case that many
+ * chunks are executed in parallel.
+ */
 public abstract class AbstractCommonPowerMockRunner extends Runner implements Filterable, Sortable {
 
 	private JUnit4TestSuiteChunker suiteChunker;
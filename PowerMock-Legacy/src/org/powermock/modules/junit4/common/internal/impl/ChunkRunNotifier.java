@@ -0,0 +1,106 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.modules.junit4.common.internal.impl;
+
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runner.notification.StoppedByUserException;
+
+/**
+ * A {@link RunNotifier} used by a chunk that is executed in parallel with
+ * other chunks. Every event is first forwarded to the shared target notifier,
+ * synchronized on the target so that its listeners are never invoked
+ * concurrently, and then to the listeners added to this notifier (such as the
+ * {@link PowerMockJUnit4RunListener} of the chunk). The listeners of a chunk
+ * are thus only notified about the tests of that chunk.
+ */
+public class ChunkRunNotifier extends RunNotifier {
+
+	private final RunNotifier target;
+
+	public ChunkRunNotifier(RunNotifier target) {
+		if (target == null) {
+			throw new IllegalArgumentException("target cannot be null");
+		}
+		this.target = target;
+	}
+
+	@Override
+	public void fireTestRunStarted(Description description) {
+		synchronized (target) {
+			target.fireTestRunStarted(description);
+		}
+		super.fireTestRunStarted(description);
+	}
+
+	@Override
+	public void fireTestRunFinished(Result result) {
+		synchronized (target) {
+			target.fireTestRunFinished(result);
+		}
+		super.fireTestRunFinished(result);
+	}
+
+	@Override
+	public void fireTestStarted(Description description) throws StoppedByUserException {
+		synchronized (target) {
+			target.fireTestStarted(description);
+		}
+		super.fireTestStarted(description);
+	}
+
+	@Override
+	public void fireTestFailure(Failure failure) {
+		synchronized (target) {
+			target.fireTestFailure(failure);
+		}
+		super.fireTestFailure(failure);
+	}
+
+	@Override
+	public void fireTestAssumptionFailed(Failure failure) {
+		synchronized (target) {
+			target.fireTestAssumptionFailed(failure);
+		}
+		super.fireTestAssumptionFailed(failure);
+	}
+
+	@Override
+	public void fireTestIgnored(Description description) {
+		synchronized (target) {
+			target.fireTestIgnored(description);
+		}
+		super.fireTestIgnored(description);
+	}
+
+	@Override
+	public void fireTestFinished(Description description) {
+		synchronized (target) {
+			target.fireTestFinished(description);
+		}
+		super.fireTestFinished(description);
+	}
+
+	@Override
+	public void pleaseStop() {
+		super.pleaseStop();
+		synchronized (target) {
+			target.pleaseStop();
+		}
+	}
+}
@@ -20,11 +20,14 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
@@ -36,6 +39,7 @@ import org.junit.runner.manipulation.NoTestsRemainException;
 import org.junit.runner.manipulation.Sortable;
 import org.junit.runner.manipulation.Sorter;
 import org.junit.runner.notification.RunNotifier;
+import org.powermock.core.MockRepository;
 import org.powermock.core.spi.PowerMockTestListener;
 import org.powermock.core.spi.testresult.TestSuiteResult;
 import org.powermock.core.spi.testresult.impl.TestSuiteResultImpl;
@@ -44,12 +48,15 @@ import org.powermock.modules.junit4.common.internal.PowerMockJUnitRunnerDelegate
 import org.powermock.tests.utils.PowerMockTestNotifier;
 import org.powermock.tests.utils.TestChunk;
 import org.powermock.tests.utils.impl.AbstractTestSuiteChunkerImpl;
+import org.powermock.tests.utils.impl.ParallelChunkExecutor;
+import org.powermock.tests.utils.impl.PowerMockDiagnostics;
 import org.powermock.tests.utils.impl.PowerMockTestNotifierImpl;
 
 public class JUnit4TestSuiteChunkerImpl extends AbstractTestSuiteChunkerImpl<PowerMockJUnitRunnerDelegate> implements JUnit4TestSuiteChunker,
 		Filterable, Sortable {
 
 	private Description description;
+	private volatile Sorter sorter;
 	private final Class<? extends PowerMockJUnitRunnerDelegate> runnerDelegateImplementationType;
 
 	public JUnit4TestSuiteChunkerImpl(Class<?> testClass, Class<? extends PowerMockJUnitRunnerDelegate> runnerDelegateImplementationType)
@@ -79,7 +86,7 @@ public class JUnit4TestSuiteChunkerImpl extends AbstractTestSuiteChunkerImpl<Pow
 		}
 	}
 
-	public void run(RunNotifier notifier) {
+	public void run(final RunNotifier notifier) {
 		List<TestChunk> chunkEntries = getTestChunks();
 		Iterator<TestChunk> iterator = chunkEntries.iterator();
 
@@ -99,27 +106,66 @@ public class JUnit4TestSuiteChunkerImpl extends AbstractTestSuiteChunkerImpl<Pow
 		final PowerMockTestNotifier powerMockTestNotifier = new PowerMockTestNotifierImpl(powerMockTestListeners);
 		powerMockTestNotifier.notifyBeforeTestSuiteStarted(testClass, allMethodsAsArray);
 
-		int failureCount = 0;
-		int successCount = 0;
-		int ignoreCount = 0;
+		final AtomicInteger failureCount = new AtomicInteger();
+		final AtomicInteger successCount = new AtomicInteger();
+		final AtomicInteger ignoreCount = new AtomicInteger();
 
+		final ParallelChunkExecutor chunkExecutor = new ParallelChunkExecutor(getParallelism());
+		final boolean parallel = chunkExecutor.isParallel();
+		final List<Runnable> chunks = new ArrayList<Runnable>();
+		final boolean[] chunksToExecute = getTestChunksInShard();
 		for (int i = 0; i < delegates.size(); i++) {
-			TestChunk next = iterator.next();
-			final ClassLoader key = next.getClassLoader();
-			PowerMockJUnit4RunListener powerMockListener = new PowerMockJUnit4RunListener(key, powerMockTestNotifier);
-			notifier.addListener(powerMockListener);
-			final PowerMockJUnitRunnerDelegate delegate = delegates.get(i);
-			delegate.run(notifier);
-			final int failureCountForThisPowerMockListener = powerMockListener.getFailureCount();
-			final int ignoreCountForThisPowerMockListener = powerMockListener.getIgnoreCount();
-			failureCount += failureCountForThisPowerMockListener;
-			ignoreCount += ignoreCountForThisPowerMockListener;
-			successCount += delegate.getTestCount() - failureCountForThisPowerMockListener - ignoreCountForThisPowerMockListener;
-			notifier.removeListener(powerMockListener);
-		}
-
-		final TestSuiteResult testSuiteResult = new TestSuiteResultImpl(failureCount, successCount, getTestCount(), ignoreCount);
+			final TestChunk next = iterator.next();
+			if (!chunksToExecute[i] || next.getTestMethodsToBeExecutedByThisClassloader().isEmpty()) {
+				// Executed by another node or all tests filtered out
+				chunksToExecute[i] = false;
+				releaseDelegate(i);
+			}
+		}
+		for (final int delegateIndex : getDelegateExecutionOrder(chunksToExecute, parallel)) {
+			final TestChunk next = getDelegateChunk(delegateIndex);
+			chunks.add(new Runnable() {
+				public void run() {
+					/*
+					 * The mock policies of the chunk are initialized when its
+					 * class loader is created, so the class loader is created
+					 * in a scope of its own, which the scope of each test
+					 * starts from.
+					 */
+					MockRepository.enterTestScope();
+					try {
+						final long setupStarted = System.currentTimeMillis();
+						// The class loader of the chunk is created right before it's executed
+						final PowerMockJUnitRunnerDelegate delegate = getDelegate(delegateIndex);
+						// Each parallel chunk reports to the notifier through its own facade
+						final RunNotifier chunkNotifier = parallel ? new ChunkRunNotifier(notifier) : notifier;
+						final ClassLoader key = next.getClassLoader();
+						PowerMockJUnit4RunListener powerMockListener = new PowerMockJUnit4RunListener(key, powerMockTestNotifier);
+						chunkNotifier.addListener(powerMockListener);
+						final long runStarted = System.currentTimeMillis();
+						delegate.run(chunkNotifier);
+						recordDelegateTiming(delegateIndex, runStarted - setupStarted, System.currentTimeMillis() - runStarted);
+						final int failureCountForThisPowerMockListener = powerMockListener.getFailureCount();
+						final int ignoreCountForThisPowerMockListener = powerMockListener.getIgnoreCount();
+						failureCount.addAndGet(failureCountForThisPowerMockListener);
+						ignoreCount.addAndGet(ignoreCountForThisPowerMockListener);
+						successCount.addAndGet(delegate.getTestCount() - failureCountForThisPowerMockListener - ignoreCountForThisPowerMockListener);
+						chunkNotifier.removeListener(powerMockListener);
+						PowerMockDiagnostics.chunkFinished(testClass, next);
+						releaseDelegate(delegateIndex);
+					} finally {
+						MockRepository.exitTestScope();
+					}
+				}
+			});
+		}
+		chunkExecutor.execute(chunks);
+		saveDelegateTimings();
+
+		final TestSuiteResult testSuiteResult = new TestSuiteResultImpl(failureCount.get(), successCount.get(), getTestCount(),
+				ignoreCount.get());
 		powerMockTestNotifier.notifyAfterTestSuiteEnded(testClass, allMethodsAsArray, testSuiteResult);
+		PowerMockDiagnostics.suiteFinished(testClass.getName());
 	}
 
 	public boolean shouldExecuteTestForMethod(Class<?> testClass, Method potentialTestMethod) {
@@ -149,59 +195,112 @@ public class JUnit4TestSuiteChunkerImpl extends AbstractTestSuiteChunkerImpl<Pow
 		final PowerMockJUnitRunnerDelegate newInstance = (PowerMockJUnitRunnerDelegate) con.newInstance(new Object[] {
 				testClassLoadedByMockedClassLoader, methodNames.toArray(new String[0]),
 				getPowerMockTestListenersLoadedByASpecificClassLoader(testClass, classLoader) });
+		// The delegate may be created after the suite has been sorted
+		if (sorter != null && newInstance instanceof Sortable) {
+			((Sortable) newInstance).sort(sorter);
+		}
 		return newInstance;
 	}
 
 	public synchronized int getTestCount() {
 		if (testCount == NOT_INITIALIZED) {
+			// Counted from the chunks to avoid creating the delegates
 			testCount = 0;
-			for (PowerMockJUnitRunnerDelegate delegate : delegates) {
-				testCount += delegate.getTestCount();
+			for (int i = 0; i < delegates.size(); i++) {
+				testCount += getDelegateChunk(i).getTestMethodsToBeExecutedByThisClassloader().size();
 			}
 		}
 		return testCount;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The description is created from the test methods of the chunks, which
+	 * doesn't require their class loaders.
+	 */
 	public Description getDescription() {
 		if (description == null) {
 			if (delegates.size() == 0) {
 				throw new IllegalStateException("Internal error: Run delegates were 0.");
 			}
 
-			// Use the first delegator as the base for the description.
-			PowerMockJUnitRunnerDelegate delegate = delegates.get(0);
-			description = delegate.getDescription();
+			final Class<?> testClass = getDelegateTestClass(0);
+			description = Description.createSuiteDescription(testClass.getName(), testClass.getAnnotations());
 
 			/*
-			 * Add the remaining descriptions of all the chunked delegators. We
-			 * do this to make sure that we avoid adding chunks as "Unrooted
+			 * Add the descriptions of all the chunks to the same description.
+			 * We do this to make sure that we avoid adding chunks as "Unrooted
 			 * tests".
 			 */
-			for (int i = 1; i < delegates.size(); i++) {
-				// Get the method-level descriptions
-				ArrayList<Description> children = delegates.get(i).getDescription().getChildren();
-				// Add all method-level descriptions to the main description.
-				for (Description methodDescription : children) {
-					description.addChild(methodDescription);
+			for (int i = 0; i < delegates.size(); i++) {
+				for (Method method : getDelegateChunk(i).getTestMethodsToBeExecutedByThisClassloader()) {
+					description.addChild(methodDescription(getDelegateTestClass(i), method));
 				}
 			}
 		}
 		return description;
 	}
 
-	public void filter(Filter filter) throws NoTestsRemainException {
-		for (Object delegate : delegates) {
+	public synchronized void filter(Filter filter) throws NoTestsRemainException {
+		boolean testsRemain = false;
+		for (int i = 0; i < delegates.size(); i++) {
+			final Class<?> testClass = getDelegateTestClass(i);
+			for (Iterator<Method> iterator = getDelegateChunk(i).getTestMethodsToBeExecutedByThisClassloader().iterator(); iterator.hasNext();) {
+				if (filter.shouldRun(methodDescription(testClass, iterator.next()))) {
+					testsRemain = true;
+				} else {
+					iterator.remove();
+				}
+			}
+			final Object delegate = delegates.get(i);
 			if (delegate instanceof Filterable) {
-				((Filterable) delegate).filter(filter);
+				try {
+					((Filterable) delegate).filter(filter);
+				} catch (NoTestsRemainException e) {
+					// The chunk is skipped since it has no test methods left
+				}
 			}
 		}
+		description = null;
+		testCount = NOT_INITIALIZED;
+		if (!testsRemain) {
+			throw new NoTestsRemainException();
+		}
 	}
 
-	public void sort(Sorter sorter) {
-		for (Object delegate : delegates) {
+	public synchronized void sort(Sorter sorter) {
+		this.sorter = sorter;
+		for (int i = 0; i < delegates.size(); i++) {
+			final Class<?> testClass = getDelegateTestClass(i);
+			Collections.sort(getDelegateChunk(i).getTestMethodsToBeExecutedByThisClassloader(), new MethodSorter(testClass, sorter));
+			final Object delegate = delegates.get(i);
 			if (delegate instanceof Sortable) {
 				((Sortable) delegate).sort(sorter);
 			}
 		}
+		description = null;
+	}
+
+	private static Description methodDescription(Class<?> testClass, Method method) {
+		return Description.createTestDescription(testClass, method.getName(), method.getAnnotations());
+	}
+
+	/**
+	 * Orders test methods the same way as a {@link Sorter} orders their
+	 * descriptions.
+	 */
+	private static class MethodSorter implements Comparator<Method> {
+		private final Class<?> testClass;
+		private final Sorter sorter;
+
+		public MethodSorter(Class<?> testClass, Sorter sorter) {
+			this.testClass = testClass;
+			this.sorter = sorter;
+		}
+
+		public int compare(Method o1, Method o2) {
+			return sorter.compare(methodDescription(testClass, o1), methodDescription(testClass, o2));
+		}
 	}
 }
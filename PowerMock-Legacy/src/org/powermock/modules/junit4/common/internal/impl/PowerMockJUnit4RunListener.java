@@ -15,16 +15,22 @@
  */
 package org.powermock.modules.junit4.common.internal.impl;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
 import org.junit.runner.Description;
 import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunListener;
 import org.powermock.core.MockRepository;
-import org.powermock.reflect.Whitebox;
 import org.powermock.tests.utils.PowerMockTestNotifier;
 
 public class PowerMockJUnit4RunListener extends RunListener {
 
-	private final ClassLoader mockClassLoader;
+	/**
+	 * {@link MockRepository#clear()} of the repository loaded by the mock
+	 * class-loader. Looked up once since it's invoked after each test.
+	 */
+	private final Method clearMethod;
 
 	private int failureCount;
 
@@ -35,8 +41,13 @@ public class PowerMockJUnit4RunListener extends RunListener {
 	private final PowerMockTestNotifier powerMockTestNotifier;
 
 	public PowerMockJUnit4RunListener(ClassLoader mockClassLoader, PowerMockTestNotifier powerMockTestNotifier) {
-		this.mockClassLoader = mockClassLoader;
 		this.powerMockTestNotifier = powerMockTestNotifier;
+		try {
+			Class<?> mockRepositoryClass = mockClassLoader.loadClass(MockRepository.class.getName());
+			clearMethod = mockRepositoryClass.getMethod("clear");
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	/**
@@ -47,12 +58,19 @@ public class PowerMockJUnit4RunListener extends RunListener {
 	 */
 	@Override
 	public void testFinished(Description description1) throws Exception {
-		Class<?> mockRepositoryClass = mockClassLoader.loadClass(MockRepository.class.getName());
 		try {
 			notifyListenersOfTestResult();
 		} finally {
 			// Clear state
-			Whitebox.invokeMethod(mockRepositoryClass, "clear");
+			try {
+				clearMethod.invoke(null);
+			} catch (InvocationTargetException e) {
+				final Throwable cause = e.getTargetException();
+				if (cause instanceof Exception) {
+					throw (Exception) cause;
+				}
+				throw (Error) cause;
+			}
 		}
 	}
 
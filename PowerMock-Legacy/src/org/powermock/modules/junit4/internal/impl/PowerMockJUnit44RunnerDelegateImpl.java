@@ -44,6 +44,7 @@ import org.junit.runner.manipulation.Sortable;
 import org.junit.runner.manipulation.Sorter;
 import org.junit.runner.notification.Failure;
 import org.junit.runner.notification.RunNotifier;
+import org.powermock.core.MockRepository;
 import org.powermock.core.classloader.annotations.MockPolicy;
 import org.powermock.core.classloader.annotations.PrepareEverythingForTest;
 import org.powermock.core.classloader.interfaces.IPrepareEverythingForTest;
@@ -52,10 +53,11 @@ import org.powermock.modules.junit4.common.internal.PowerMockJUnitRunnerDelegate
 import org.powermock.modules.junit4.internal.impl.testcaseworkaround.PowerMockJUnit4MethodValidator;
 import org.powermock.reflect.Whitebox;
 import org.powermock.tests.utils.PowerMockTestNotifier;
+import org.powermock.tests.utils.TestClassesExtractor;
 import org.powermock.tests.utils.impl.MockPolicyInitializerImpl;
 import org.powermock.tests.utils.impl.PowerMockTestNotifierImpl;
 import org.powermock.tests.utils.impl.PrepareForTestExtractorImpl;
-import org.powermock.tests.utils.impl.StaticConstructorSuppressExtractorImpl;
+import org.powermock.tests.utils.impl.TestMetadataCache;
 
 /**
  * A JUnit4 test runner that only runs a specified set of test methods in a test
@@ -139,7 +141,7 @@ public class PowerMockJUnit44RunnerDelegateImpl extends Runner implements Filter
     }
 
     protected void runMethods(final RunNotifier notifier) {
-        final StaticConstructorSuppressExtractorImpl staticConstructorSuppressExtractorImpl = new StaticConstructorSuppressExtractorImpl();
+        final TestClassesExtractor suppressionExtractor = new TestMetadataCache().getSuppressionExtractor();
         Class<?> testType = getTestClass();
         final ClassLoader thisClassLoader = getClass().getClassLoader();
         if (!thisClassLoader.equals(testType.getClassLoader())) {
@@ -156,8 +158,8 @@ public class PowerMockJUnit44RunnerDelegateImpl extends Runner implements Filter
             }
         }
         for (Method method : testMethods) {
-            if (staticConstructorSuppressExtractorImpl.getTestClasses(method) == null) {
-                staticConstructorSuppressExtractorImpl.getTestClasses(testType);
+            if (suppressionExtractor.getTestClasses(method) == null) {
+                suppressionExtractor.getTestClasses(testType);
             }
             invokeTestMethod(method, notifier);
         }
@@ -203,24 +205,33 @@ public class PowerMockJUnit44RunnerDelegateImpl extends Runner implements Filter
     }
 
     protected void invokeTestMethod(final Method method, RunNotifier notifier) {
-        Description description = methodDescription(method);
-        final Object testInstance;
+        /*
+         * The test instance may create mocks so the test scope of the mock
+         * repository must be entered before the instance is created.
+         */
+        MockRepository.enterTestScope();
         try {
-            testInstance = createTest();
-        } catch (InvocationTargetException e) {
-            testAborted(notifier, description, e.getTargetException());
-            return;
-        } catch (Exception e) {
-            testAborted(notifier, description, e);
-            return;
-        }
+            Description description = methodDescription(method);
+            final Object testInstance;
+            try {
+                testInstance = createTest();
+            } catch (InvocationTargetException e) {
+                testAborted(notifier, description, e.getTargetException());
+                return;
+            } catch (Exception e) {
+                testAborted(notifier, description, e);
+                return;
+            }
 
-        // Check if we extend from TestClass, in that case we must run the setUp
-        // and tearDown methods.
-        final boolean extendsFromTestCase = TestCase.class.isAssignableFrom(testClass.getJavaClass()) ? true : false;
+            // Check if we extend from TestClass, in that case we must run the setUp
+            // and tearDown methods.
+            final boolean extendsFromTestCase = TestCase.class.isAssignableFrom(testClass.getJavaClass()) ? true : false;
 
-        final TestMethod testMethod = wrapMethod(method);
-        createPowerMockRunner(testInstance, testMethod, notifier, description, extendsFromTestCase).run();
+            final TestMethod testMethod = wrapMethod(method);
+            createPowerMockRunner(testInstance, testMethod, notifier, description, extendsFromTestCase).run();
+        } finally {
+            MockRepository.exitTestScope();
+        }
     }
 
     protected PowerMockJUnit44MethodRunner createPowerMockRunner(final Object testInstance, final TestMethod testMethod, RunNotifier notifier,
@@ -28,4 +28,12 @@ public interface TestChunk {
 
 	List<Method> getTestMethodsToBeExecutedByThisClassloader();
 
-}
\ No newline at end of file
+	/**
+	 * Release the class-loader of this chunk so that it can be garbage
+	 * collected once the tests of the chunk have been executed. A chunk whose
+	 * class-loader is created lazily creates a new one if
+	 * {@link #getClassLoader()} is called again.
+	 */
+	void releaseClassLoader();
+
+}
@@ -92,4 +92,19 @@ public interface TestSuiteChunker {
 	 * @return The number of tests in this suite.
 	 */
 	public int getTestCount();
+
+	/**
+	 * Set the maximum number of chunks to execute in parallel. Chunks are
+	 * executed one after another by default.
+	 * 
+	 * @param parallelism
+	 *            The maximum number of chunks to execute in parallel, must be
+	 *            at least <code>1</code>.
+	 */
+	public void setParallelism(int parallelism);
+
+	/**
+	 * @return The maximum number of chunks to execute in parallel.
+	 */
+	public int getParallelism();
 }
@@ -29,11 +29,20 @@ public abstract class AbstractTestClassExtractor implements TestClassesExtractor
 	/**
 	 * If <code>element</code> is a class this method traverses the hierarchy
 	 * and extracts classes that should be prepared for test in all super
-	 * classes.
+	 * classes. Classes listed in a {@link TestPlanManifest} are answered from
+	 * the manifest instead.
 	 */
 	public final String[] getTestClasses(AnnotatedElement element) {
 		final Set<String> classesToPrepareForTest = new HashSet<String>();
 		if (element instanceof Class<?>) {
+			final String testPlanKind = getTestPlanKind();
+			if (testPlanKind != null) {
+				final String[] classesFromTestPlan = TestPlanManifest.getValues((Class<?>) element, testPlanKind);
+				if (classesFromTestPlan != null) {
+					classesFoundInTestPlan(classesFromTestPlan);
+					return classesFromTestPlan;
+				}
+			}
 			Class<?> classToInvestigate = (Class<?>) element;
 			/*
 			 * We skip the first class because it's extracted below this
@@ -70,6 +79,23 @@ public abstract class AbstractTestClassExtractor implements TestClassesExtractor
 	 */
 	protected abstract String[] getClassesToModify(AnnotatedElement element);
 
+	/**
+	 * @return The {@link TestPlanManifest} kind holding the result of this
+	 *         extractor, or <code>null</code> if it isn't part of the manifest.
+	 */
+	protected String getTestPlanKind() {
+		return null;
+	}
+
+	/**
+	 * Invoked when the classes for a test class were read from the
+	 * {@link TestPlanManifest} instead of being extracted by
+	 * {@link #getClassesToModify(AnnotatedElement)}. Override to perform the
+	 * side effects of the extraction.
+	 */
+	protected void classesFoundInTestPlan(String[] classes) {
+	}
+
 	public boolean isPrepared(AnnotatedElement element, String fullyQualifiedClassName) {
 		if (fullyQualifiedClassName == null) {
 			throw new IllegalArgumentException("fullyQualifiedClassName cannot be null.");
@@ -16,14 +16,22 @@
 package org.powermock.tests.utils.impl;
 
 import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
 
@@ -55,17 +63,31 @@ import org.powermock.tests.utils.TestSuiteChunker;
  * 
  */
 public abstract class AbstractTestSuiteChunkerImpl<T> implements TestSuiteChunker {
+    /**
+     * The system property that, when <code>true</code>, makes chunks with
+     * identical configurations (prepared classes, suppressed static
+     * initializers, ignored packages and mock policies) share a single mock
+     * class loader, also across test classes. Creating and transforming
+     * classes then scales with the number of distinct configurations rather
+     * than with the number of test classes, but the test classes sharing a
+     * class loader also share the static state of the prepared classes.
+     */
+    public static final String MERGE_CHUNKS_PROPERTY = "powermock.chunk.merge";
+
     private static final int DEFAULT_TEST_LISTENERS_SIZE = 1;
 
     protected static final int NOT_INITIALIZED = -1;
 
     private static final int INTERNAL_INDEX_NOT_FOUND = NOT_INITIALIZED;
 
-    protected final TestClassesExtractor prepareForTestExtractor = new PrepareForTestExtractorImpl();
+    // Each class and method of the suite is only inspected once.
+    private final TestMetadataCache testMetadataCache = new TestMetadataCache();
 
-    protected final TestClassesExtractor suppressionExtractor = new StaticConstructorSuppressExtractorImpl();
+    protected final TestClassesExtractor prepareForTestExtractor = testMetadataCache.getPrepareForTestExtractor();
 
-    private final IgnorePackagesExtractor ignorePackagesExtractor = new PowerMockIgnorePackagesExtractorImpl();
+    protected final TestClassesExtractor suppressionExtractor = testMetadataCache.getSuppressionExtractor();
+
+    private final IgnorePackagesExtractor ignorePackagesExtractor = testMetadataCache.getIgnorePackagesExtractor();
 
     private final ArrayMerger arrayMerger = new ArrayMergerImpl();
 
@@ -77,8 +99,16 @@ public abstract class AbstractTestSuiteChunkerImpl<T> implements TestSuiteChunke
      */
     protected final Set<Class<?>> delegatesCreatedForTheseClasses = new LinkedHashSet<Class<?>>();
 
-    // A list of junit delegates.
-    protected final List<T> delegates = new LinkedList<T>();
+    /*
+     * A list of junit delegates. An element is null until the delegate is
+     * created by getDelegate(int), and again after releaseDelegate(int).
+     */
+    protected final List<T> delegates = new ArrayList<T>();
+
+    // The test class and chunk of each delegate.
+    private final List<Class<?>> delegateTestClasses = new ArrayList<Class<?>>();
+
+    private final List<TestChunk> delegateChunks = new ArrayList<TestChunk>();
 
     /*
      * Maps the list of test indexes that is assigned to a specific test suite
@@ -88,6 +118,12 @@ public abstract class AbstractTestSuiteChunkerImpl<T> implements TestSuiteChunke
 
     private int currentTestIndex = NOT_INITIALIZED;
 
+    /*
+     * Lookup tables for the test indexes, built from testAtDelegateMapper when
+     * first needed and discarded when more tests are added to the suite.
+     */
+    private volatile TestIndexTable testIndexTable;
+
     /*
      * Maps between a specific class and a map of test methods loaded by a
      * specific mock class loader.
@@ -96,6 +132,20 @@ public abstract class AbstractTestSuiteChunkerImpl<T> implements TestSuiteChunke
 
     protected volatile int testCount = NOT_INITIALIZED;
 
+    private int parallelism = ParallelChunkExecutor.getDefaultParallelism();
+
+    private final ChunkSharder chunkSharder = ChunkSharder.fromSystemProperties();
+
+    private final boolean mergeChunks = Boolean.getBoolean(MERGE_CHUNKS_PROPERTY);
+
+    // The class loaders shared by merged chunks, keyed by configuration.
+    private final Map<String, SharedClassLoader> sharedClassLoaders = new HashMap<String, SharedClassLoader>();
+
+    // The configuration of each chunk, see getChunkConfigurationKey.
+    private final Map<TestChunk, String> chunkConfigurationKeys = new IdentityHashMap<TestChunk, String>();
+
+    private final ChunkTimingHistory chunkTimingHistory = ChunkTimingHistory.fromSystemProperties();
+
     protected AbstractTestSuiteChunkerImpl(Class<?> testClass) throws Exception {
         this(new Class[] { testClass });
     }
@@ -106,6 +156,16 @@ public abstract class AbstractTestSuiteChunkerImpl<T> implements TestSuiteChunke
         for (Class<?> clazz : testClasses) {
             chunkClass(clazz);
         }
+        PowerMockDiagnostics.testMetadataExtracted(Arrays.toString(testClasses), testMetadataCache);
+    }
+
+    /**
+     * @return The cache holding the configuration extracted from the test
+     *         classes and methods of this suite, and the time it took to
+     *         extract it.
+     */
+    public TestMetadataCache getTestMetadataCache() {
+        return testMetadataCache;
     }
 
     protected Object getPowerMockTestListenersLoadedByASpecificClassLoader(Class<?> clazz, ClassLoader classLoader) {
@@ -175,34 +235,116 @@ public abstract class AbstractTestSuiteChunkerImpl<T> implements TestSuiteChunke
     }
 
     protected void chunkClass(final Class<?> testClass) throws Exception {
-        ClassLoader defaultMockLoader = null;
         final String[] ignorePackages = ignorePackagesExtractor.getPackagesToIgnore(testClass);
-        if (testClass.isAnnotationPresent(PrepareEverythingForTest.class) || IPrepareEverythingForTest.class.isAssignableFrom(testClass)) {
-            defaultMockLoader = createNewClassloader(testClass, new String[] { MockClassLoader.MODIFY_ALL_CLASSES }, ignorePackages);
+        final boolean prepareEverything = testClass.isAnnotationPresent(PrepareEverythingForTest.class)
+                || IPrepareEverythingForTest.class.isAssignableFrom(testClass);
+        final String[] classesToModify;
+        if (prepareEverything) {
+            classesToModify = new String[] { MockClassLoader.MODIFY_ALL_CLASSES };
         } else {
             final String[] prepareForTestClasses = prepareForTestExtractor.getTestClasses(testClass);
             final String[] suppressStaticClasses = suppressionExtractor.getTestClasses(testClass);
-            defaultMockLoader = createNewClassloader(testClass, arrayMerger.mergeArrays(String.class, prepareForTestClasses, suppressStaticClasses),
-                    ignorePackages);
-            if (defaultMockLoader instanceof MockClassLoader) {
-                // Test class should always be prepared
-                ((MockClassLoader) defaultMockLoader).addClassesToModify(testClass.getName());
-            }
+            classesToModify = arrayMerger.mergeArrays(String.class, prepareForTestClasses, suppressStaticClasses);
         }
-        registerProxyframework(defaultMockLoader);
         List<Method> currentClassloaderMethods = new LinkedList<Method>();
-        // Put the first suite in the map of internal suites.
-        TestChunk defaultTestChunk = new TestChunkImpl(defaultMockLoader, currentClassloaderMethods);
+        /*
+         * Put the first suite in the map of internal suites. Its class loader
+         * is created right before the chunk is executed.
+         */
+        TestChunk defaultTestChunk = newTestChunk(testClass, currentClassloaderMethods, classesToModify, suppressionExtractor
+                .getTestClasses(testClass), ignorePackages);
         List<TestChunk> testChunks = new LinkedList<TestChunk>();
         testChunks.add(defaultTestChunk);
-        internalSuites.add(new TestCaseEntry(testClass, testChunks));
-        initEntries(internalSuites);
+        final TestCaseEntry testCaseEntry = new TestCaseEntry(testClass, testChunks);
+        internalSuites.add(testCaseEntry);
+        initEntry(testCaseEntry);
         /*
          * If we don't have any test that should be executed by the default
          * class loader remove it to avoid duplicate test print outs.
          */
         if (currentClassloaderMethods.isEmpty()) {
-            internalSuites.get(0).getTestChunks().remove(0);
+            testChunks.remove(0);
+            discardTestChunk(defaultTestChunk);
+        }
+    }
+
+    /**
+     * Create a chunk whose class loader is created right before the chunk is
+     * executed. If chunks are merged (see {@link #MERGE_CHUNKS_PROPERTY})
+     * the class loader is shared with all chunks of the suite that have the
+     * same configuration.
+     */
+    private TestChunk newTestChunk(final Class<?> testClass, List<Method> methods, final String[] classesToModify,
+            String[] suppressStaticClasses, final String[] packagesToIgnore) {
+        final String key = getChunkConfigurationKey(testClass, classesToModify, suppressStaticClasses, packagesToIgnore);
+        if (!mergeChunks) {
+            final TestChunk chunk = new TestChunkImpl(methods) {
+                @Override
+                protected ClassLoader createClassLoader() {
+                    final ClassLoader mockLoader = createNewClassloader(testClass, classesToModify, packagesToIgnore);
+                    registerProxyframework(mockLoader);
+                    return mockLoader;
+                }
+            };
+            chunkConfigurationKeys.put(chunk, key);
+            return chunk;
+        }
+
+        SharedClassLoader sharedClassLoader = sharedClassLoaders.get(key);
+        if (sharedClassLoader == null) {
+            sharedClassLoader = new SharedClassLoader(testClass, classesToModify, packagesToIgnore);
+            sharedClassLoaders.put(key, sharedClassLoader);
+        }
+        final SharedClassLoader classLoaderOfThisChunk = sharedClassLoader;
+        final TestChunk chunk = new TestChunkImpl(methods) {
+            @Override
+            protected ClassLoader createClassLoader() {
+                return classLoaderOfThisChunk.getClassLoader(this);
+            }
+
+            @Override
+            public synchronized void releaseClassLoader() {
+                super.releaseClassLoader();
+                classLoaderOfThisChunk.release(this);
+            }
+        };
+        sharedClassLoader.add(testClass, chunk);
+        chunkConfigurationKeys.put(chunk, key);
+        return chunk;
+    }
+
+    private void discardTestChunk(TestChunk chunk) {
+        for (SharedClassLoader sharedClassLoader : sharedClassLoaders.values()) {
+            sharedClassLoader.remove(chunk);
+        }
+    }
+
+    /**
+     * Chunks may share a class loader if they prepare, suppress and ignore the
+     * same classes and use the same mock policies.
+     */
+    private String getChunkConfigurationKey(Class<?> testClass, String[] classesToModify, String[] suppressStaticClasses,
+            String[] packagesToIgnore) {
+        final StringBuilder key = new StringBuilder();
+        appendSorted(key.append("prepare:"), classesToModify);
+        appendSorted(key.append(";suppress:"), suppressStaticClasses);
+        appendSorted(key.append(";ignore:"), packagesToIgnore);
+        key.append(";policies:");
+        if (testClass.isAnnotationPresent(MockPolicy.class)) {
+            for (Class<? extends PowerMockPolicy> policy : testClass.getAnnotation(MockPolicy.class).value()) {
+                key.append(policy.getName()).append(',');
+            }
+        }
+        return key.toString();
+    }
+
+    private static void appendSorted(StringBuilder key, String[] values) {
+        if (values != null) {
+            final String[] sorted = values.clone();
+            Arrays.sort(sorted);
+            for (String value : sorted) {
+                key.append(value).append(',');
+            }
         }
     }
 
@@ -233,58 +375,118 @@ public abstract class AbstractTestSuiteChunkerImpl<T> implements TestSuiteChunke
 
     /**
      * {@inheritDoc}
+     * <p>
+     * The delegators are created lazily by {@link #getDelegate(int)}, since
+     * creating a delegator creates the class loader of its chunk and loads the
+     * test class.
      */
     public void createTestDelegators(Class<?> testClass, List<TestChunk> chunks) throws Exception {
         for (TestChunk chunk : chunks) {
-            ClassLoader classLoader = chunk.getClassLoader();
-            List<Method> methodsToTest = chunk.getTestMethodsToBeExecutedByThisClassloader();
-            T runnerDelegator = createDelegatorFromClassloader(classLoader, testClass, methodsToTest);
-            delegates.add(runnerDelegator);
+            delegates.add(null);
+            delegateTestClasses.add(testClass);
+            delegateChunks.add(chunk);
         }
         delegatesCreatedForTheseClasses.add(testClass);
     }
 
+    /**
+     * Get the delegator at a specific index, creating it (and the class loader
+     * of its chunk) if needed.
+     */
+    protected T getDelegate(int index) {
+        final TestChunk chunk = delegateChunks.get(index);
+        synchronized (chunk) {
+            T delegate = delegates.get(index);
+            if (delegate == null) {
+                try {
+                    delegate = createDelegatorFromClassloader(chunk.getClassLoader(), delegateTestClasses.get(index), chunk
+                            .getTestMethodsToBeExecutedByThisClassloader());
+                } catch (InvocationTargetException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new RuntimeException(cause);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                delegates.set(index, delegate);
+            }
+            return delegate;
+        }
+    }
+
+    /**
+     * Release the delegator at a specific index together with the class loader
+     * of its chunk, typically right after the chunk has been executed. They're
+     * created again if the delegator is needed later.
+     */
+    protected void releaseDelegate(int index) {
+        final TestChunk chunk = delegateChunks.get(index);
+        synchronized (chunk) {
+            delegates.set(index, null);
+            chunk.releaseClassLoader();
+        }
+    }
+
+    /**
+     * @return The chunk executed by the delegator at a specific index.
+     */
+    protected TestChunk getDelegateChunk(int index) {
+        return delegateChunks.get(index);
+    }
+
+    /**
+     * @return The test class of the delegator at a specific index.
+     */
+    protected Class<?> getDelegateTestClass(int index) {
+        return delegateTestClasses.get(index);
+    }
+
     protected abstract T createDelegatorFromClassloader(ClassLoader classLoader, Class<?> testClass, final List<Method> methodsToTest)
             throws Exception;
 
-    private void initEntries(List<TestCaseEntry> entries) throws Exception {
-        for (TestCaseEntry testCaseEntry : entries) {
-            final Class<?> testClass = testCaseEntry.getTestClass();
-            Method[] allMethods = testClass.getMethods();
-            for (Method method : allMethods) {
-                if (shouldExecuteTestForMethod(testClass, method)) {
-                    currentTestIndex++;
-                    if (hasChunkAnnotation(method)) {
-                        LinkedList<Method> methodsInThisChunk = new LinkedList<Method>();
-                        methodsInThisChunk.add(method);
-                        final String[] staticSuppressionClasses = getStaticSuppressionClasses(testClass, method);
-                        ClassLoader mockClassloader = null;
-                        if (method.isAnnotationPresent(PrepareEverythingForTest.class)) {
-                            mockClassloader = createNewClassloader(testClass, new String[] { MockClassLoader.MODIFY_ALL_CLASSES },
-                                    ignorePackagesExtractor.getPackagesToIgnore(testClass));
-                        } else {
-                            mockClassloader = createNewClassloader(testClass, arrayMerger.mergeArrays(String.class, prepareForTestExtractor
-                                    .getTestClasses(method), staticSuppressionClasses), ignorePackagesExtractor.getPackagesToIgnore(testClass));
-                        }
-                        TestChunkImpl chunk = new TestChunkImpl(mockClassloader, methodsInThisChunk);
-                        testCaseEntry.getTestChunks().add(chunk);
-                        updatedIndexes();
+    private void initEntry(TestCaseEntry testCaseEntry) throws Exception {
+        final Class<?> testClass = testCaseEntry.getTestClass();
+        Method[] allMethods = testClass.getMethods();
+        for (Method method : allMethods) {
+            if (shouldExecuteTestForMethod(testClass, method)) {
+                currentTestIndex++;
+                if (hasChunkAnnotation(method)) {
+                    LinkedList<Method> methodsInThisChunk = new LinkedList<Method>();
+                    methodsInThisChunk.add(method);
+                    final String[] classesToModify;
+                    final String[] staticSuppressionClasses = getStaticSuppressionClasses(testClass, method);
+                    if (method.isAnnotationPresent(PrepareEverythingForTest.class)) {
+                        classesToModify = new String[] { MockClassLoader.MODIFY_ALL_CLASSES };
                     } else {
-                        testCaseEntry.getTestChunks().get(0).getTestMethodsToBeExecutedByThisClassloader().add(method);
-                        // currentClassloaderMethods.add(method);
-                        final int currentDelegateIndex = internalSuites.size() - 1;
-                        /*
-                         * Add this test index to the main junit runner
-                         * delegator.
-                         */
-                        List<Integer> testList = testAtDelegateMapper.get(currentDelegateIndex);
-                        if (testList == null) {
-                            testList = new LinkedList<Integer>();
-                            testAtDelegateMapper.put(currentDelegateIndex, testList);
-                        }
-
-                        testList.add(currentTestIndex);
+                        classesToModify = arrayMerger.mergeArrays(String.class, prepareForTestExtractor.getTestClasses(method),
+                                staticSuppressionClasses);
+                    }
+                    TestChunk chunk = newTestChunk(testClass, methodsInThisChunk, classesToModify, staticSuppressionClasses,
+                            ignorePackagesExtractor.getPackagesToIgnore(testClass));
+                    testCaseEntry.getTestChunks().add(chunk);
+                    updatedIndexes();
+                } else {
+                    testCaseEntry.getTestChunks().get(0).getTestMethodsToBeExecutedByThisClassloader().add(method);
+                    // currentClassloaderMethods.add(method);
+                    final int currentDelegateIndex = internalSuites.size() - 1;
+                    /*
+                     * Add this test index to the main junit runner
+                     * delegator.
+                     */
+                    List<Integer> testList = testAtDelegateMapper.get(currentDelegateIndex);
+                    if (testList == null) {
+                        testList = new ArrayList<Integer>();
+                        testAtDelegateMapper.put(currentDelegateIndex, testList);
                     }
+
+                    testList.add(currentTestIndex);
+                    testIndexTable = null;
                 }
             }
         }
@@ -306,9 +508,19 @@ public abstract class AbstractTestSuiteChunkerImpl<T> implements TestSuiteChunke
     }
 
     private void updatedIndexes() {
-        final List<Integer> testIndexesForThisClassloader = new LinkedList<Integer>();
+        final List<Integer> testIndexesForThisClassloader = new ArrayList<Integer>();
         testIndexesForThisClassloader.add(currentTestIndex);
         testAtDelegateMapper.put(internalSuites.size(), testIndexesForThisClassloader);
+        testIndexTable = null;
+    }
+
+    private TestIndexTable getTestIndexTable() {
+        TestIndexTable table = testIndexTable;
+        if (table == null) {
+            table = new TestIndexTable(testAtDelegateMapper, currentTestIndex + 1);
+            testIndexTable = table;
+        }
+        return table;
     }
 
     public int getChunkSize() {
@@ -316,7 +528,7 @@ public abstract class AbstractTestSuiteChunkerImpl<T> implements TestSuiteChunke
     }
 
     public List<TestChunk> getTestChunks() {
-        List<TestChunk> allChunks = new LinkedList<TestChunk>();
+        List<TestChunk> allChunks = new ArrayList<TestChunk>();
         for (TestCaseEntry entry : internalSuites) {
             for (TestChunk chunk : entry.getTestChunks()) {
                 allChunks.add(chunk);
@@ -325,6 +537,143 @@ public abstract class AbstractTestSuiteChunkerImpl<T> implements TestSuiteChunke
         return allChunks;
     }
 
+    /**
+     * Get the keys that identify the chunks between test runs, in the same
+     * order as {@link #getTestChunks()}.
+     * 
+     * @see ChunkSharder#getChunkKey(Class, TestChunk)
+     */
+    protected List<String> getTestChunkKeys() {
+        List<String> allChunkKeys = new ArrayList<String>();
+        for (TestCaseEntry entry : internalSuites) {
+            for (TestChunk chunk : entry.getTestChunks()) {
+                allChunkKeys.add(ChunkSharder.getChunkKey(entry.getTestClass(), chunk));
+            }
+        }
+        return allChunkKeys;
+    }
+
+    /**
+     * Get the chunks that should be executed by this node when the suite is
+     * sharded over several nodes (see {@link ChunkSharder}).
+     * 
+     * @return An array with one element per chunk, in the same order as
+     *         {@link #getTestChunks()}, that is <code>true</code> if the chunk
+     *         should be executed.
+     */
+    protected boolean[] getTestChunksInShard() {
+        final List<Integer> testCounts = new ArrayList<Integer>();
+        for (TestChunk chunk : getTestChunks()) {
+            testCounts.add(chunk.getTestMethodsToBeExecutedByThisClassloader().size());
+        }
+        return chunkSharder.select(getTestChunkKeys(), testCounts);
+    }
+
+    /**
+     * Get the order in which the delegators should be executed. Chunks with
+     * the same configuration are executed back to back so that a class loader
+     * shared by merged chunks is only needed for a short time. When the chunks
+     * are executed in parallel the longest chunks according to the
+     * {@link ChunkTimingHistory} are started first, otherwise the chunks are
+     * executed in the order they were defined.
+     * 
+     * @param chunksToExecute
+     *            One element per delegator that is <code>true</code> if the
+     *            delegator should be executed.
+     * @param parallel
+     *            Whether the chunks are executed in parallel.
+     * @return The indexes of the delegators to execute.
+     */
+    protected int[] getDelegateExecutionOrder(boolean[] chunksToExecute, final boolean parallel) {
+        final LinkedHashMap<String, List<Integer>> chunksByConfiguration = new LinkedHashMap<String, List<Integer>>();
+        final Map<Integer, Double> chunkTimes = new HashMap<Integer, Double>();
+        long totalTime = 0;
+        int timedTests = 0;
+        for (int i = 0; i < delegates.size(); i++) {
+            if (!chunksToExecute[i]) {
+                continue;
+            }
+            final TestChunk chunk = getDelegateChunk(i);
+            // Without merging there's nothing to gain from grouping the chunks
+            final String configuration = mergeChunks ? chunkConfigurationKeys.get(chunk) : String.valueOf(i);
+            List<Integer> chunksWithThisConfiguration = chunksByConfiguration.get(configuration);
+            if (chunksWithThisConfiguration == null) {
+                chunksWithThisConfiguration = new ArrayList<Integer>();
+                chunksByConfiguration.put(configuration, chunksWithThisConfiguration);
+            }
+            chunksWithThisConfiguration.add(i);
+            if (parallel) {
+                final long time = chunkTimingHistory.getTime(ChunkSharder.getChunkKey(getDelegateTestClass(i), chunk));
+                if (time >= 0) {
+                    chunkTimes.put(i, (double) time);
+                    totalTime += time;
+                    timedTests += chunk.getTestMethodsToBeExecutedByThisClassloader().size();
+                }
+            }
+        }
+
+        final List<List<Integer>> groups = new ArrayList<List<Integer>>(chunksByConfiguration.values());
+        if (parallel) {
+            // Estimate the chunks without history, or use the test count if there's no history at all
+            final double timePerTest = timedTests == 0 ? 1 : (double) totalTime / timedTests;
+            for (List<Integer> group : groups) {
+                for (Integer index : group) {
+                    if (!chunkTimes.containsKey(index)) {
+                        chunkTimes.put(index, getDelegateChunk(index).getTestMethodsToBeExecutedByThisClassloader().size() * timePerTest);
+                    }
+                }
+            }
+            final Comparator<Integer> longestChunkFirst = new Comparator<Integer>() {
+                public int compare(Integer o1, Integer o2) {
+                    return Double.compare(chunkTimes.get(o2), chunkTimes.get(o1));
+                }
+            };
+            for (List<Integer> group : groups) {
+                Collections.sort(group, longestChunkFirst);
+            }
+            Collections.sort(groups, new Comparator<List<Integer>>() {
+                public int compare(List<Integer> o1, List<Integer> o2) {
+                    return Double.compare(getTime(o2), getTime(o1));
+                }
+
+                private double getTime(List<Integer> group) {
+                    double time = 0;
+                    for (Integer index : group) {
+                        time += chunkTimes.get(index);
+                    }
+                    return time;
+                }
+            });
+        }
+
+        final List<Integer> order = new ArrayList<Integer>();
+        for (List<Integer> group : groups) {
+            order.addAll(group);
+        }
+        final int[] orderAsArray = new int[order.size()];
+        for (int i = 0; i < orderAsArray.length; i++) {
+            orderAsArray[i] = order.get(i);
+        }
+        return orderAsArray;
+    }
+
+    /**
+     * Record how long it took to set up and to execute the delegator at a
+     * specific index, see {@link ChunkTimingHistory}.
+     */
+    protected void recordDelegateTiming(int index, long setupMillis, long runMillis) {
+        if (chunkTimingHistory.isEnabled()) {
+            chunkTimingHistory.record(ChunkSharder.getChunkKey(getDelegateTestClass(index), getDelegateChunk(index)), setupMillis, runMillis);
+        }
+    }
+
+    /**
+     * Write the timings recorded by {@link #recordDelegateTiming(int, long, long)}.
+     */
+    protected void saveDelegateTimings() {
+        chunkTimingHistory.save();
+    }
+
     /**
      * Get the internal test index for a junit runner delegate based on the
      * "real" original test index. For example, the test may need to run a
@@ -343,15 +692,7 @@ public abstract class AbstractTestSuiteChunkerImpl<T> implements TestSuiteChunke
      * 
      */
     public int getInternalTestIndex(int originalTestIndex) {
-        Set<Entry<Integer, List<Integer>>> delegatorEntrySet = testAtDelegateMapper.entrySet();
-        for (Entry<Integer, List<Integer>> entry : delegatorEntrySet) {
-            final List<Integer> testIndexesForThisDelegate = entry.getValue();
-            final int internalIndex = testIndexesForThisDelegate.indexOf(originalTestIndex);
-            if (internalIndex != INTERNAL_INDEX_NOT_FOUND) {
-                return internalIndex;
-            }
-        }
-        return INTERNAL_INDEX_NOT_FOUND;
+        return getTestIndexTable().getInternalTestIndex(originalTestIndex);
     }
 
     /**
@@ -364,18 +705,8 @@ public abstract class AbstractTestSuiteChunkerImpl<T> implements TestSuiteChunke
      * @return The index for of the junit runner delegate as seen by JTestRack.
      */
     public int getDelegatorIndex(int testIndex) {
-        int delegatorIndex = -1;
-        Set<Entry<Integer, List<Integer>>> entrySet = testAtDelegateMapper.entrySet();
-        for (Entry<Integer, List<Integer>> entry : entrySet) {
-            // If the delegator contains the test case, return the index of the
-            // delegator.
-            if (entry.getValue().contains(testIndex)) {
-                delegatorIndex = entry.getKey();
-                break;
-            }
-        }
-
-        if (delegatorIndex == -1) {
+        final int delegatorIndex = getTestIndexTable().getDelegatorIndex(testIndex);
+        if (delegatorIndex == INTERNAL_INDEX_NOT_FOUND) {
             throw new RuntimeException("Internal error: Failed to find the delgator index.");
         }
         return delegatorIndex;
@@ -397,6 +728,23 @@ public abstract class AbstractTestSuiteChunkerImpl<T> implements TestSuiteChunke
         return testClasses;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
     /**
      * @return <code>true</code> if there are some mock policies that
      *         contributes with classes that should be loaded by the mock
@@ -411,4 +759,92 @@ public abstract class AbstractTestSuiteChunkerImpl<T> implements TestSuiteChunke
         }
         return hasMockPolicyProvidedClasses;
     }
+
+    /**
+     * A class loader shared by all merged chunks with the same configuration.
+     * It's created when the first of the chunks is executed and released when
+     * none of the chunks need it anymore. A chunk needs the class loader until
+     * it releases it, or again once it requests it after a release, so chunks
+     * that are released without being executed (for instance because they
+     * belong to another shard) don't keep the class loader alive.
+     */
+    private class SharedClassLoader {
+        private final Class<?> testClass;
+        private final String[] classesToModify;
+        private final String[] packagesToIgnore;
+        private final Set<String> testClassNames = new LinkedHashSet<String>();
+        private final Set<TestChunk> chunksNeedingClassLoader = new HashSet<TestChunk>();
+        private ClassLoader classLoader;
+
+        public SharedClassLoader(Class<?> testClass, String[] classesToModify, String[] packagesToIgnore) {
+            this.testClass = testClass;
+            this.classesToModify = classesToModify;
+            this.packagesToIgnore = packagesToIgnore;
+        }
+
+        public synchronized void add(Class<?> testClass, TestChunk chunk) {
+            testClassNames.add(testClass.getName());
+            chunksNeedingClassLoader.add(chunk);
+        }
+
+        public synchronized void remove(TestChunk chunk) {
+            release(chunk);
+        }
+
+        public synchronized ClassLoader getClassLoader(TestChunk chunk) {
+            chunksNeedingClassLoader.add(chunk);
+            if (classLoader == null) {
+                classLoader = createNewClassloader(testClass, classesToModify, packagesToIgnore);
+                if (classLoader instanceof MockClassLoader && !((MockClassLoader) classLoader).shouldModifyAll()) {
+                    // All test classes hosted by the class loader must be prepared
+                    ((MockClassLoader) classLoader).addClassesToModify(testClassNames.toArray(new String[testClassNames.size()]));
+                }
+                registerProxyframework(classLoader);
+            }
+            return classLoader;
+        }
+
+        public synchronized void release(TestChunk chunk) {
+            chunksNeedingClassLoader.remove(chunk);
+            if (chunksNeedingClassLoader.isEmpty()) {
+                classLoader = null;
+            }
+        }
+    }
+
+    /**
+     * Maps an original test index to the index of its delegator and to its
+     * internal index within that delegator using arrays, so that looking up a
+     * test doesn't have to scan the lists in <code>testAtDelegateMapper</code>.
+     */
+    private static class TestIndexTable {
+        private final int[] delegatorIndexes;
+        private final int[] internalIndexes;
+
+        public TestIndexTable(LinkedHashMap<Integer, List<Integer>> testAtDelegateMapper, int numberOfTests) {
+            delegatorIndexes = new int[numberOfTests];
+            internalIndexes = new int[numberOfTests];
+            Arrays.fill(delegatorIndexes, INTERNAL_INDEX_NOT_FOUND);
+            Arrays.fill(internalIndexes, INTERNAL_INDEX_NOT_FOUND);
+            for (Entry<Integer, List<Integer>> entry : testAtDelegateMapper.entrySet()) {
+                int internalIndex = 0;
+                for (Integer testIndex : entry.getValue()) {
+                    // The first delegator containing a test wins, like when scanning the lists
+                    if (delegatorIndexes[testIndex] == INTERNAL_INDEX_NOT_FOUND) {
+                        delegatorIndexes[testIndex] = entry.getKey();
+                        internalIndexes[testIndex] = internalIndex;
+                    }
+                    internalIndex++;
+                }
+            }
+        }
+
+        public int getDelegatorIndex(int testIndex) {
+            return testIndex >= 0 && testIndex < delegatorIndexes.length ? delegatorIndexes[testIndex] : INTERNAL_INDEX_NOT_FOUND;
+        }
+
+        public int getInternalTestIndex(int testIndex) {
+            return testIndex >= 0 && testIndex < internalIndexes.length ? internalIndexes[testIndex] : INTERNAL_INDEX_NOT_FOUND;
+        }
+    }
 }
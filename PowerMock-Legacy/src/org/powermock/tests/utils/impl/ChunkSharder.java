@@ -0,0 +1,305 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.tests.utils.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.powermock.tests.utils.TestChunk;
+
+/**
+ * Splits the chunks of a test suite into a number of shards so that the suite
+ * can be distributed over several nodes, each node running only the chunks of
+ * its own shard. Sharding is done per chunk since each chunk creates its own
+ * mock class-loader, splitting the tests of a chunk would create the same
+ * class-loader on several nodes.
+ * <p>
+ * The timing file is a properties file that maps the key of a chunk (see
+ * {@link #getChunkKey(Class, TestChunk)}) to its duration in milliseconds.
+ * The chunks in the timing file are planned once, the longest chunk first to
+ * the shard with the smallest total duration so far, so the shard of these
+ * chunks doesn't depend on the other chunks that happen to be run by the same
+ * test runner.
+ * <p>
+ * The chunks of a suite that are missing in the timing file are balanced by
+ * their number of tests, the largest chunk first to the shard with the
+ * fewest tests so far. Ties are broken starting at a shard chosen by the
+ * hash code of the chunk keys, so that suites with few chunks (for instance
+ * a runner per test class) don't all start at shard <code>0</code>. A single
+ * chunk missing in the timing file is assigned by the hash code of its key.
+ * Every node sees the same chunks for the same suite, so all nodes agree on
+ * the assignment.
+ */
+public class ChunkSharder {
+
+	/**
+	 * The system property that defines the index of the shard to run, starting
+	 * at <code>0</code>.
+	 */
+	public static final String SHARD_INDEX_PROPERTY = "powermock.shard.index";
+
+	/**
+	 * The system property that defines the total number of shards.
+	 */
+	public static final String SHARD_COUNT_PROPERTY = "powermock.shard.count";
+
+	/**
+	 * The system property that defines the path of the timing file.
+	 */
+	public static final String SHARD_TIMINGS_PROPERTY = "powermock.shard.timings";
+
+	private final int shardIndex;
+
+	private final int shardCount;
+
+	private final File timingFile;
+
+	private Map<String, Integer> plan;
+
+	/**
+	 * Create a new instance.
+	 * 
+	 * @param shardIndex
+	 *            The index of the shard to run.
+	 * @param shardCount
+	 *            The total number of shards.
+	 * @param timingFile
+	 *            The timing file or <code>null</code> to assign all chunks by
+	 *            the hash code of their key.
+	 */
+	public ChunkSharder(int shardIndex, int shardCount, File timingFile) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("The shard count must be at least 1 but was " + shardCount + ".");
+		}
+		if (shardIndex < 0 || shardIndex >= shardCount) {
+			throw new IllegalArgumentException("The shard index must be between 0 and " + (shardCount - 1) + " but was " + shardIndex
+					+ ".");
+		}
+		this.shardIndex = shardIndex;
+		this.shardCount = shardCount;
+		this.timingFile = timingFile;
+	}
+
+	/**
+	 * Create an instance configured by the {@value #SHARD_INDEX_PROPERTY},
+	 * {@value #SHARD_COUNT_PROPERTY} and {@value #SHARD_TIMINGS_PROPERTY}
+	 * system properties. Without these properties all chunks are in the same
+	 * shard. If no timing file is defined the file recorded by the
+	 * {@link ChunkTimingHistory} is used, if any.
+	 */
+	public static ChunkSharder fromSystemProperties() {
+		final String timings = System.getProperty(SHARD_TIMINGS_PROPERTY, System.getProperty(ChunkTimingHistory.TIMINGS_PROPERTY));
+		return new ChunkSharder(Integer.getInteger(SHARD_INDEX_PROPERTY, 0), Integer.getInteger(SHARD_COUNT_PROPERTY, 1),
+				timings == null ? null : new File(timings));
+	}
+
+	/**
+	 * @return <code>true</code> if the suite is split into more than one
+	 *         shard.
+	 */
+	public boolean isSharded() {
+		return shardCount > 1;
+	}
+
+	/**
+	 * Get the key that identifies a chunk in the timing file. The key is
+	 * stable between runs: the name of the test class followed by the
+	 * alphabetically first test method of the chunk.
+	 */
+	public static String getChunkKey(Class<?> testClass, TestChunk chunk) {
+		String firstMethodName = null;
+		for (Method method : chunk.getTestMethodsToBeExecutedByThisClassloader()) {
+			if (firstMethodName == null || method.getName().compareTo(firstMethodName) < 0) {
+				firstMethodName = method.getName();
+			}
+		}
+		return testClass.getName() + "#" + firstMethodName;
+	}
+
+	/**
+	 * Select the chunks that belong to the shard of this node.
+	 * 
+	 * @param chunkKeys
+	 *            The keys of all chunks in the suite.
+	 * @param testCounts
+	 *            The number of tests of each chunk, in the same order as the
+	 *            keys.
+	 * @return An array with one element per chunk key that is
+	 *         <code>true</code> if the chunk belongs to the shard of this node.
+	 */
+	public boolean[] select(final List<String> chunkKeys, final List<Integer> testCounts) {
+		final boolean[] selected = new boolean[chunkKeys.size()];
+		if (!isSharded()) {
+			Arrays.fill(selected, true);
+			return selected;
+		}
+		final Map<String, Integer> plan = getPlan();
+		final List<Integer> unplannedChunks = new ArrayList<Integer>();
+		int keysHashCode = 0;
+		for (int i = 0; i < selected.length; i++) {
+			final Integer plannedShard = plan.get(chunkKeys.get(i));
+			if (plannedShard != null) {
+				selected[i] = plannedShard == shardIndex;
+			} else {
+				unplannedChunks.add(i);
+				keysHashCode = 31 * keysHashCode + chunkKeys.get(i).hashCode();
+			}
+		}
+		if (unplannedChunks.size() == 1) {
+			final int index = unplannedChunks.get(0);
+			selected[index] = getShard(chunkKeys.get(index)) == shardIndex;
+			return selected;
+		}
+
+		Collections.sort(unplannedChunks, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				final int countComparison = testCounts.get(o2).compareTo(testCounts.get(o1));
+				return countComparison != 0 ? countComparison : chunkKeys.get(o1).compareTo(chunkKeys.get(o2));
+			}
+		});
+		final int firstShard = (keysHashCode & Integer.MAX_VALUE) % shardCount;
+		final int[] shardTestCounts = new int[shardCount];
+		for (int index : unplannedChunks) {
+			int smallestShard = firstShard;
+			for (int i = 1; i < shardCount; i++) {
+				final int shard = (firstShard + i) % shardCount;
+				if (shardTestCounts[shard] < shardTestCounts[smallestShard]) {
+					smallestShard = shard;
+				}
+			}
+			shardTestCounts[smallestShard] += testCounts.get(index);
+			selected[index] = smallestShard == shardIndex;
+		}
+		return selected;
+	}
+
+	/**
+	 * Get the shard of a chunk on its own, that is of a chunk that is planned
+	 * by the timing file or that is the only chunk of its suite.
+	 * 
+	 * @param chunkKey
+	 *            The key of the chunk, see
+	 *            {@link #getChunkKey(Class, TestChunk)}.
+	 * @return The index of the shard that runs the chunk.
+	 */
+	public int getShard(String chunkKey) {
+		if (!isSharded()) {
+			return 0;
+		}
+		final Integer plannedShard = getPlan().get(chunkKey);
+		if (plannedShard != null) {
+			return plannedShard;
+		}
+		return (chunkKey.hashCode() & Integer.MAX_VALUE) % shardCount;
+	}
+
+	private synchronized Map<String, Integer> getPlan() {
+		if (plan == null) {
+			plan = createPlan(loadTimings());
+		}
+		return plan;
+	}
+
+	private Map<String, Integer> createPlan(Properties timings) {
+		final List<TimedChunk> timedChunks = new ArrayList<TimedChunk>();
+		for (Object key : timings.keySet()) {
+			if (!ChunkTimingHistory.isChunkKey((String) key)) {
+				// The breakdown written by the ChunkTimingHistory
+				continue;
+			}
+			final long time = getTime(timings, (String) key);
+			if (time >= 0) {
+				timedChunks.add(new TimedChunk((String) key, time));
+			}
+		}
+		Collections.sort(timedChunks, new Comparator<TimedChunk>() {
+			public int compare(TimedChunk o1, TimedChunk o2) {
+				if (o1.time != o2.time) {
+					return o1.time > o2.time ? -1 : 1;
+				}
+				return o1.key.compareTo(o2.key);
+			}
+		});
+		final Map<String, Integer> plan = new HashMap<String, Integer>();
+		final long[] shardTimes = new long[shardCount];
+		for (TimedChunk chunk : timedChunks) {
+			int smallestShard = 0;
+			for (int shard = 1; shard < shardCount; shard++) {
+				if (shardTimes[shard] < shardTimes[smallestShard]) {
+					smallestShard = shard;
+				}
+			}
+			shardTimes[smallestShard] += chunk.time;
+			plan.put(chunk.key, smallestShard);
+		}
+		return plan;
+	}
+
+	private Properties loadTimings() {
+		final Properties timings = new Properties();
+		if (timingFile != null && timingFile.isFile()) {
+			InputStream in = null;
+			try {
+				in = new FileInputStream(timingFile);
+				timings.load(in);
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to read the PowerMock timing file " + timingFile + ".", e);
+			} finally {
+				if (in != null) {
+					try {
+						in.close();
+					} catch (IOException e) {
+						// Ignore
+					}
+				}
+			}
+		}
+		return timings;
+	}
+
+	private static long getTime(Properties timings, String key) {
+		final String time = timings.getProperty(key);
+		if (time != null) {
+			try {
+				return Long.parseLong(time.trim());
+			} catch (NumberFormatException e) {
+				// Treat it as a chunk without history
+			}
+		}
+		return -1;
+	}
+
+	private static class TimedChunk {
+		private final String key;
+		private final long time;
+
+		public TimedChunk(String key, long time) {
+			this.key = key;
+			this.time = time;
+		}
+	}
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.tests.utils.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Records how long the chunks of a suite take to execute in a properties file
+ * so that later runs can schedule the chunks by their duration. A chunk is
+ * identified by its key (see
+ * {@link ChunkSharder#getChunkKey(Class, org.powermock.tests.utils.TestChunk)}
+ * ). For each chunk the file contains:
+ * <ul>
+ * <li><code>&lt;key&gt;</code> - The total duration in milliseconds. This is
+ * the format read by the {@link ChunkSharder} so the same file can be used for
+ * sharding.</li>
+ * <li><code>&lt;key&gt;.setup</code> - The time it took to create the class
+ * loader of the chunk and to load and transform the test class.</li>
+ * <li><code>&lt;key&gt;.run</code> - The time it took to execute the tests
+ * (including the classes transformed while doing so).</li>
+ * </ul>
+ * The history is only used if the {@value #TIMINGS_PROPERTY} system property
+ * names the file.
+ */
+public class ChunkTimingHistory {
+
+	/**
+	 * The system property that defines the path of the timing file.
+	 */
+	public static final String TIMINGS_PROPERTY = "powermock.chunk.timings";
+
+	private static final String SETUP_SUFFIX = ".setup";
+
+	private static final String RUN_SUFFIX = ".run";
+
+	private final File timingFile;
+
+	private Properties timings;
+
+	private final Properties recordedTimings = new Properties();
+
+	/**
+	 * Create a new instance.
+	 * 
+	 * @param timingFile
+	 *            The timing file or <code>null</code> to disable the history.
+	 */
+	public ChunkTimingHistory(File timingFile) {
+		this.timingFile = timingFile;
+	}
+
+	/**
+	 * Create an instance that uses the file defined by the
+	 * {@value #TIMINGS_PROPERTY} system property.
+	 */
+	public static ChunkTimingHistory fromSystemProperties() {
+		final String timings = System.getProperty(TIMINGS_PROPERTY);
+		return new ChunkTimingHistory(timings == null ? null : new File(timings));
+	}
+
+	/**
+	 * @return <code>false</code> if <code>key</code> is one of the keys
+	 *         holding the breakdown of the duration of a chunk rather than the
+	 *         key of a chunk. Chunk keys can't end with these suffixes since
+	 *         method names don't contain dots.
+	 */
+	static boolean isChunkKey(String key) {
+		return !key.endsWith(SETUP_SUFFIX) && !key.endsWith(RUN_SUFFIX);
+	}
+
+	/**
+	 * @return <code>true</code> if timings are recorded and read.
+	 */
+	public boolean isEnabled() {
+		return timingFile != null;
+	}
+
+	/**
+	 * Get the total duration of a chunk in the previous run.
+	 * 
+	 * @return The duration in milliseconds or <code>-1</code> if unknown.
+	 */
+	public synchronized long getTime(String chunkKey) {
+		if (!isEnabled()) {
+			return -1;
+		}
+		if (timings == null) {
+			timings = load(timingFile);
+		}
+		final String time = timings.getProperty(chunkKey);
+		if (time != null) {
+			try {
+				return Long.parseLong(time.trim());
+			} catch (NumberFormatException e) {
+				// Treat it as a chunk without history
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Record the durations of a chunk. The timings are written to the file by
+	 * {@link #save()}.
+	 */
+	public synchronized void record(String chunkKey, long setupMillis, long runMillis) {
+		if (!isEnabled()) {
+			return;
+		}
+		recordedTimings.setProperty(chunkKey, String.valueOf(setupMillis + runMillis));
+		recordedTimings.setProperty(chunkKey + SETUP_SUFFIX, String.valueOf(setupMillis));
+		recordedTimings.setProperty(chunkKey + RUN_SUFFIX, String.valueOf(runMillis));
+	}
+
+	/**
+	 * Write the recorded timings to the file. Timings of chunks that weren't
+	 * executed, for example because they belong to other suites, are kept.
+	 */
+	public void save() {
+		if (!isEnabled()) {
+			return;
+		}
+		// Suites in the same JVM may share the file
+		synchronized (ChunkTimingHistory.class) {
+			final Properties allTimings;
+			synchronized (this) {
+				if (recordedTimings.isEmpty()) {
+					return;
+				}
+				allTimings = load(timingFile);
+				allTimings.putAll(recordedTimings);
+			}
+			final File parent = timingFile.getAbsoluteFile().getParentFile();
+			if (parent != null) {
+				parent.mkdirs();
+			}
+			OutputStream out = null;
+			try {
+				out = new FileOutputStream(timingFile);
+				allTimings.store(out, "PowerMock chunk timings");
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to write the PowerMock timing file " + timingFile + ".", e);
+			} finally {
+				close(out);
+			}
+		}
+	}
+
+	private static Properties load(File file) {
+		final Properties properties = new Properties();
+		if (file.isFile()) {
+			InputStream in = null;
+			try {
+				in = new FileInputStream(file);
+				properties.load(in);
+			} catch (IOException e) {
+				throw new RuntimeException("Failed to read the PowerMock timing file " + file + ".", e);
+			} finally {
+				close(in);
+			}
+		}
+		return properties;
+	}
+
+	private static void close(InputStream in) {
+		if (in != null) {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+
+	private static void close(OutputStream out) {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.tests.utils.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.powermock.core.MockRepository;
+
+/**
+ * Executes the chunks of a test suite, either one after another by the
+ * current thread or in parallel by a bounded pool of worker threads. When the
+ * chunks are executed in parallel the {@link MockRepository} is by default
+ * made test scoped for the worker threads so that tests running at the same
+ * time don't share mocks. Tests executed by other threads aren't affected.
+ */
+public class ParallelChunkExecutor {
+
+	/**
+	 * The system property that defines the default number of chunks to
+	 * execute in parallel.
+	 */
+	public static final String PARALLELISM_PROPERTY = "powermock.chunk.parallelism";
+
+	private final int parallelism;
+
+	private final boolean testScoped;
+
+	public ParallelChunkExecutor(int parallelism) {
+		this(parallelism, true);
+	}
+
+	/**
+	 * @param parallelism
+	 *            The maximum number of chunks to execute at the same time.
+	 * @param testScoped
+	 *            Whether the {@link MockRepository} should be test scoped for
+	 *            the worker threads. Chunks that don't run tests in this JVM
+	 *            don't need it.
+	 */
+	public ParallelChunkExecutor(int parallelism, boolean testScoped) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+		this.testScoped = testScoped;
+	}
+
+	/**
+	 * @return The number of chunks to execute in parallel according to the
+	 *         {@value #PARALLELISM_PROPERTY} system property, <code>1</code> if
+	 *         not defined.
+	 */
+	public static int getDefaultParallelism() {
+		return Math.max(1, Integer.getInteger(PARALLELISM_PROPERTY, 1));
+	}
+
+	/**
+	 * @return <code>true</code> if more than one chunk may be executed at the
+	 *         same time.
+	 */
+	public boolean isParallel() {
+		return parallelism > 1;
+	}
+
+	/**
+	 * Execute all chunks and wait for them to finish. If a chunk throws an
+	 * exception the remaining chunks are still executed and the first exception
+	 * is rethrown afterwards.
+	 * 
+	 * @param chunks
+	 *            The chunks to execute, in the order they should be started.
+	 */
+	public void execute(List<Runnable> chunks) {
+		if (!isParallel() || chunks.size() <= 1) {
+			for (Runnable chunk : chunks) {
+				chunk.run();
+			}
+			return;
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, chunks.size()), new ChunkThreadFactory());
+		try {
+			final List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (Runnable chunk : chunks) {
+				futures.add(executor.submit(testScoped ? new TestScopedChunk(chunk) : chunk));
+			}
+			Throwable firstFailure = null;
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if (firstFailure == null) {
+						firstFailure = e.getCause();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while waiting for the test chunks to finish.", e);
+				}
+			}
+			if (firstFailure instanceof RuntimeException) {
+				throw (RuntimeException) firstFailure;
+			} else if (firstFailure instanceof Error) {
+				throw (Error) firstFailure;
+			} else if (firstFailure != null) {
+				throw new RuntimeException(firstFailure);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Executes a chunk with the {@link MockRepository} test scoped for the
+	 * worker thread.
+	 */
+	private static class TestScopedChunk implements Runnable {
+		private final Runnable chunk;
+
+		public TestScopedChunk(Runnable chunk) {
+			this.chunk = chunk;
+		}
+
+		public void run() {
+			MockRepository.setTestScoped(true);
+			try {
+				chunk.run();
+			} finally {
+				MockRepository.setTestScoped(false);
+			}
+		}
+	}
+
+	private static class ChunkThreadFactory implements ThreadFactory {
+		private static final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		public Thread newThread(Runnable runnable) {
+			final Thread thread = new Thread(runnable, "PowerMock chunk executor " + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			// Allow the chunk to load classes the same way as the current thread
+			thread.setContextClassLoader(Thread.currentThread().getContextClassLoader());
+			return thread;
+		}
+	}
+}
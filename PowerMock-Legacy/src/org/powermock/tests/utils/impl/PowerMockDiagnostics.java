@@ -0,0 +1,159 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.tests.utils.impl;
+
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.powermock.core.MockRepository;
+import org.powermock.tests.utils.TestChunk;
+
+/**
+ * Reports state that PowerMock leaves behind after tests have been executed.
+ * Enabled by setting the system property <code>powermock.diagnostics</code> to
+ * <code>true</code>, otherwise all methods do nothing.
+ * <p>
+ * When a test suite has ended the number of entries in each collection of the
+ * {@link MockRepository} are reported if any of them are non-empty (which
+ * means that the repository wasn't cleared). When the JVM exits the
+ * class-loaders of all finished chunks that are still reachable are reported
+ * since they (and all classes they loaded) are leaking.
+ */
+public class PowerMockDiagnostics {
+
+	private static final boolean ENABLED = Boolean.getBoolean("powermock.diagnostics");
+
+	private static final List<ChunkReference> finishedChunks = new LinkedList<ChunkReference>();
+
+	private static boolean shutdownHookRegistered = false;
+
+	/**
+	 * @return <code>true</code> if diagnostics are enabled.
+	 */
+	public static boolean isEnabled() {
+		return ENABLED;
+	}
+
+	/**
+	 * Record that all tests of a chunk have been executed. The class-loader of
+	 * the chunk is expected to be garbage collectable once the suite that
+	 * executed it has ended.
+	 */
+	public static void chunkFinished(Class<?> testClass, TestChunk chunk) {
+		if (!ENABLED) {
+			return;
+		}
+		final String description = String.format("%s (%d test methods)", testClass.getName(), chunk.getTestMethodsToBeExecutedByThisClassloader()
+				.size());
+		synchronized (finishedChunks) {
+			finishedChunks.add(new ChunkReference(chunk.getClassLoader(), description));
+			if (!shutdownHookRegistered) {
+				Runtime.getRuntime().addShutdownHook(new Thread() {
+					@Override
+					public void run() {
+						reportReachableClassLoaders(System.err);
+					}
+				});
+				shutdownHookRegistered = true;
+			}
+		}
+	}
+
+	/**
+	 * Report how long it took to extract the configuration of the test
+	 * classes and methods of a suite.
+	 * 
+	 * @param suiteName
+	 *            The name of the suite that has been chunked.
+	 */
+	public static void testMetadataExtracted(String suiteName, TestMetadataCache testMetadataCache) {
+		if (!ENABLED) {
+			return;
+		}
+		System.err.println(String.format("PowerMock: Extracted the test configuration of suite %s in %d ms (%d extractions, %d cache hits)",
+				suiteName, testMetadataCache.getExtractionTime(), testMetadataCache.getExtractionCount(), testMetadataCache
+						.getCacheHitCount()));
+	}
+
+	/**
+	 * Report the state of the {@link MockRepository} if it's not empty.
+	 * 
+	 * @param suiteName
+	 *            The name of the suite that has ended.
+	 */
+	public static void suiteFinished(String suiteName) {
+		if (!ENABLED) {
+			return;
+		}
+		final Map<String, Integer> sizes = MockRepository.getSizes();
+		StringBuilder builder = new StringBuilder();
+		for (Entry<String, Integer> entry : sizes.entrySet()) {
+			// Static initializers are never cleared
+			if (entry.getValue() > 0 && !entry.getKey().equals("suppressStaticInitializers")) {
+				builder.append("\n\t").append(entry.getKey()).append(": ").append(entry.getValue());
+			}
+		}
+		if (builder.length() > 0) {
+			System.err.println(String.format("PowerMock: The mock repository was not cleared after suite %s:%s", suiteName, builder));
+		}
+	}
+
+	private static void reportReachableClassLoaders(PrintStream out) {
+		// Give the garbage collector a few chances to collect the class-loaders
+		for (int i = 0; i < 3 && hasReachableClassLoaders(); i++) {
+			System.gc();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		synchronized (finishedChunks) {
+			for (ChunkReference chunkReference : finishedChunks) {
+				final ClassLoader classLoader = chunkReference.get();
+				if (classLoader != null) {
+					out.println(String.format("PowerMock: %s used for %s is still reachable after its chunk finished.", classLoader,
+							chunkReference.description));
+				}
+			}
+		}
+	}
+
+	private static boolean hasReachableClassLoaders() {
+		synchronized (finishedChunks) {
+			for (Iterator<ChunkReference> iterator = finishedChunks.iterator(); iterator.hasNext();) {
+				if (iterator.next().get() != null) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static class ChunkReference extends WeakReference<ClassLoader> {
+		private final String description;
+
+		public ChunkReference(ClassLoader classLoader, String description) {
+			super(classLoader);
+			this.description = description;
+		}
+	}
+}
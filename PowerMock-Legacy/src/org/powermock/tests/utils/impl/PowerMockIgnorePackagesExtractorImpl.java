@@ -11,6 +11,12 @@ import org.powermock.tests.utils.IgnorePackagesExtractor;
 public class PowerMockIgnorePackagesExtractorImpl implements IgnorePackagesExtractor {
 
     public String[] getPackagesToIgnore(AnnotatedElement element) {
+        if (element instanceof Class<?>) {
+            final String[] packagesFromTestPlan = TestPlanManifest.getValues((Class<?>) element, TestPlanManifest.IGNORE);
+            if (packagesFromTestPlan != null) {
+                return packagesFromTestPlan;
+            }
+        }
         List<String> ignoredPackages = new LinkedList<String>();
         PowerMockIgnore annotation = element.getAnnotation(PowerMockIgnore.class);
         if (annotation != null) {
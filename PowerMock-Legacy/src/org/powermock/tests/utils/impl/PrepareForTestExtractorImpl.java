@@ -34,6 +34,13 @@ import org.powermock.tests.utils.TestClassesExtractor;
  */
 public class PrepareForTestExtractorImpl extends AbstractTestClassExtractor {
 
+	/**
+	 * {@inheritDoc}
+	 */
+	protected String getTestPlanKind() {
+		return TestPlanManifest.PREPARE;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -53,4 +53,22 @@ public class StaticConstructorSuppressExtractorImpl extends AbstractTestClassExt
 
 		return all.toArray(new String[0]);
 	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected String getTestPlanKind() {
+		return TestPlanManifest.SUPPRESS;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void classesFoundInTestPlan(String[] classes) {
+		for (String classToSuppress : classes) {
+			MockRepository.addSuppressStaticInitializer(classToSuppress);
+		}
+	}
 }
@@ -22,25 +22,57 @@ import org.powermock.tests.utils.TestChunk;
 
 /**
  * A test chunk consists of a list of methods that should be executed by a
- * particular classloader.
+ * particular classloader. The classloader is either supplied when the chunk is
+ * created or created by {@link #createClassLoader()} when first needed.
  */
 public class TestChunkImpl implements TestChunk {
 
-	private final ClassLoader classLoader;
+	private ClassLoader classLoader;
+	private final boolean lazy;
 	private final List<Method> testMethodsToBeExecutedByThisClassloader;
 
 	public TestChunkImpl(ClassLoader classLoader, List<Method> testMethodsToBeExecutedByThisClassloader) {
 		this.classLoader = classLoader;
+		this.lazy = false;
+		this.testMethodsToBeExecutedByThisClassloader = testMethodsToBeExecutedByThisClassloader;
+	}
+
+	/**
+	 * Create a chunk whose classloader is created by
+	 * {@link #createClassLoader()} the first time it's needed.
+	 */
+	protected TestChunkImpl(List<Method> testMethodsToBeExecutedByThisClassloader) {
+		this.lazy = true;
 		this.testMethodsToBeExecutedByThisClassloader = testMethodsToBeExecutedByThisClassloader;
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
-	public ClassLoader getClassLoader() {
+	public synchronized ClassLoader getClassLoader() {
+		if (classLoader == null && lazy) {
+			classLoader = createClassLoader();
+		}
 		return classLoader;
 	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public synchronized void releaseClassLoader() {
+		if (lazy) {
+			classLoader = null;
+		}
+	}
+
+	/**
+	 * Create the classloader of a lazy chunk. Must be overridden by chunks
+	 * created with {@link #TestChunkImpl(List)}.
+	 */
+	protected ClassLoader createClassLoader() {
+		throw new UnsupportedOperationException("The classloader of this chunk must be supplied when the chunk is created.");
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.tests.utils.impl;
+
+import java.lang.reflect.AnnotatedElement;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.powermock.tests.utils.IgnorePackagesExtractor;
+import org.powermock.tests.utils.TestClassesExtractor;
+
+/**
+ * Remembers the results of the extractors for every class and method they
+ * have been asked about, so that the annotations (and interfaces) of a test
+ * are only inspected once per suite. The time spent in the underlying
+ * extractors is recorded and can be retrieved using
+ * {@link #getExtractionTime()}.
+ */
+public class TestMetadataCache {
+
+	// Stored for elements whose extractor returned null.
+	private static final String[] NO_RESULT = new String[0];
+
+	private final Map<AnnotatedElement, String[]> classesToPrepare = new HashMap<AnnotatedElement, String[]>();
+
+	private final Map<AnnotatedElement, String[]> staticInitializersToSuppress = new HashMap<AnnotatedElement, String[]>();
+
+	private final Map<AnnotatedElement, String[]> packagesToIgnore = new HashMap<AnnotatedElement, String[]>();
+
+	private final TestClassesExtractor prepareForTestExtractor;
+
+	private final TestClassesExtractor suppressionExtractor;
+
+	private final IgnorePackagesExtractor ignorePackagesExtractor;
+
+	private long extractionTime = 0;
+
+	private int extractionCount = 0;
+
+	private int cacheHitCount = 0;
+
+	public TestMetadataCache() {
+		this(new PrepareForTestExtractorImpl(), new StaticConstructorSuppressExtractorImpl(), new PowerMockIgnorePackagesExtractorImpl());
+	}
+
+	public TestMetadataCache(TestClassesExtractor prepareForTestExtractor, TestClassesExtractor suppressionExtractor,
+			IgnorePackagesExtractor ignorePackagesExtractor) {
+		this.prepareForTestExtractor = new CachingTestClassesExtractor(prepareForTestExtractor, classesToPrepare);
+		this.suppressionExtractor = new CachingTestClassesExtractor(suppressionExtractor, staticInitializersToSuppress);
+		this.ignorePackagesExtractor = new CachingIgnorePackagesExtractor(ignorePackagesExtractor);
+	}
+
+	/**
+	 * @return A {@link TestClassesExtractor} for the classes to prepare for
+	 *         test that is backed by this cache.
+	 */
+	public TestClassesExtractor getPrepareForTestExtractor() {
+		return prepareForTestExtractor;
+	}
+
+	/**
+	 * @return A {@link TestClassesExtractor} for the static initializers to
+	 *         suppress that is backed by this cache.
+	 */
+	public TestClassesExtractor getSuppressionExtractor() {
+		return suppressionExtractor;
+	}
+
+	/**
+	 * @return An {@link IgnorePackagesExtractor} that is backed by this cache.
+	 */
+	public IgnorePackagesExtractor getIgnorePackagesExtractor() {
+		return ignorePackagesExtractor;
+	}
+
+	/**
+	 * @return The number of milliseconds spent in the underlying extractors.
+	 */
+	public synchronized long getExtractionTime() {
+		return extractionTime;
+	}
+
+	/**
+	 * @return The number of times the underlying extractors were invoked.
+	 */
+	public synchronized int getExtractionCount() {
+		return extractionCount;
+	}
+
+	/**
+	 * @return The number of times a result was answered from the cache.
+	 */
+	public synchronized int getCacheHitCount() {
+		return cacheHitCount;
+	}
+
+	/**
+	 * @return The cached result, {@link #NO_RESULT} or <code>null</code> if
+	 *         <code>element</code> hasn't been extracted yet.
+	 */
+	private synchronized String[] lookup(Map<AnnotatedElement, String[]> cache, AnnotatedElement element) {
+		final String[] cachedResult = cache.get(element);
+		if (cachedResult != null) {
+			cacheHitCount++;
+		}
+		return cachedResult;
+	}
+
+	private synchronized String[] store(Map<AnnotatedElement, String[]> cache, AnnotatedElement element, String[] result, long startTime) {
+		extractionTime += System.currentTimeMillis() - startTime;
+		extractionCount++;
+		final String[] cachedResult = result == null ? NO_RESULT : result;
+		cache.put(element, cachedResult);
+		return cachedResult;
+	}
+
+	private static String[] copy(String[] cachedResult) {
+		// Callers own the returned array
+		return cachedResult == NO_RESULT ? null : cachedResult.clone();
+	}
+
+	private class CachingTestClassesExtractor implements TestClassesExtractor {
+		private final TestClassesExtractor extractor;
+
+		private final Map<AnnotatedElement, String[]> cache;
+
+		public CachingTestClassesExtractor(TestClassesExtractor extractor, Map<AnnotatedElement, String[]> cache) {
+			this.extractor = extractor;
+			this.cache = cache;
+		}
+
+		public String[] getTestClasses(AnnotatedElement element) {
+			final String[] cachedResult = lookup(cache, element);
+			if (cachedResult != null) {
+				return copy(cachedResult);
+			}
+			final long startTime = System.currentTimeMillis();
+			return copy(store(cache, element, extractor.getTestClasses(element), startTime));
+		}
+
+		public boolean isPrepared(AnnotatedElement element, String fullyQualifiedClassName) {
+			if (fullyQualifiedClassName == null) {
+				throw new IllegalArgumentException("fullyQualifiedClassName cannot be null.");
+			}
+			final String[] testClasses = getTestClasses(element);
+			if (testClasses != null) {
+				for (String className : testClasses) {
+					if (className.equals(fullyQualifiedClassName)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+	}
+
+	private class CachingIgnorePackagesExtractor implements IgnorePackagesExtractor {
+		private final IgnorePackagesExtractor extractor;
+
+		public CachingIgnorePackagesExtractor(IgnorePackagesExtractor extractor) {
+			this.extractor = extractor;
+		}
+
+		public String[] getPackagesToIgnore(AnnotatedElement element) {
+			final String[] cachedResult = lookup(packagesToIgnore, element);
+			if (cachedResult != null) {
+				return copy(cachedResult);
+			}
+			final long startTime = System.currentTimeMillis();
+			return copy(store(packagesToIgnore, element, extractor.getPackagesToIgnore(element), startTime));
+		}
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.tests.utils.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the test plan manifest that {@link TestPlanManifestGenerator} writes
+ * next to compiled test classes. The manifest records, for every test class,
+ * what the extractors would otherwise compute reflectively (and, for the
+ * interface based configuration used by PowerMock Legacy, by instantiating
+ * the test class). Classes missing from the manifest, classes that have
+ * changed since the manifest was generated, or a manifest disabled through the
+ * {@value #DISABLED_PROPERTY} system property, fall back to the reflective
+ * extraction.
+ * <p>
+ * There is one manifest per package named {@value #FILE_NAME}. Its keys are
+ * the binary class name relative to the package followed by one of the
+ * suffixes {@value #PREPARE}, {@value #SUPPRESS} or {@value #IGNORE}, and
+ * its values are comma separated lists. The suffix {@value #CHECKSUM} holds
+ * the checksum of the class files of the test class and its super classes
+ * (see {@link #getChecksum(Class)}), a test class whose checksum doesn't
+ * match is treated as missing from the manifest.
+ */
+public class TestPlanManifest {
+
+	public static final String FILE_NAME = "powermock-test-plan.properties";
+
+	public static final String DISABLED_PROPERTY = "powermock.testplan.disabled";
+
+	public static final String PREPARE = "prepare";
+
+	public static final String SUPPRESS = "suppress";
+
+	public static final String IGNORE = "ignore";
+
+	public static final String CHECKSUM = "checksum";
+
+	private static final Properties NO_MANIFEST = new Properties();
+
+	private static final Map<ClassLoader, Map<String, Properties>> manifests = new WeakHashMap<ClassLoader, Map<String, Properties>>();
+
+	// Whether the manifest entry of a test class matches its class files.
+	private static final Map<Class<?>, Boolean> upToDate = new WeakHashMap<Class<?>, Boolean>();
+
+	/**
+	 * Get the values recorded for <code>testClass</code>.
+	 * 
+	 * @param testClass
+	 *            The test class.
+	 * @param kind
+	 *            One of {@link #PREPARE}, {@link #SUPPRESS} or {@link #IGNORE}.
+	 * @return The recorded values (possibly empty) or <code>null</code> if the
+	 *         test class isn't part of a manifest.
+	 */
+	public static String[] getValues(Class<?> testClass, String kind) {
+		if (Boolean.getBoolean(DISABLED_PROPERTY)) {
+			return null;
+		}
+		final Properties manifest = getManifest(testClass);
+		final String value = manifest.getProperty(getKey(testClass.getName(), kind));
+		if (value == null || !isUpToDate(testClass, manifest)) {
+			return null;
+		}
+		return split(value);
+	}
+
+	/**
+	 * Get the checksum of the class files of <code>testClass</code> and its
+	 * super classes, up to the first class that isn't loaded from a class
+	 * file that can be found.
+	 * 
+	 * @return The checksum as a hexadecimal string.
+	 */
+	static String getChecksum(Class<?> testClass) throws IOException {
+		final CRC32 checksum = new CRC32();
+		final byte[] buffer = new byte[4096];
+		for (Class<?> currentClass = testClass; currentClass != null && currentClass != Object.class; currentClass = currentClass
+				.getSuperclass()) {
+			final String className = currentClass.getName();
+			final URL classFile = currentClass.getResource(className.substring(className.lastIndexOf('.') + 1) + ".class");
+			if (classFile == null) {
+				break;
+			}
+			final InputStream in = classFile.openStream();
+			try {
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					checksum.update(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return Long.toHexString(checksum.getValue());
+	}
+
+	private static boolean isUpToDate(Class<?> testClass, Properties manifest) {
+		synchronized (upToDate) {
+			Boolean isUpToDate = upToDate.get(testClass);
+			if (isUpToDate == null) {
+				final String recordedChecksum = manifest.getProperty(getKey(testClass.getName(), CHECKSUM));
+				try {
+					isUpToDate = Boolean.valueOf(recordedChecksum != null && recordedChecksum.equals(getChecksum(testClass)));
+				} catch (IOException e) {
+					isUpToDate = Boolean.FALSE;
+				}
+				upToDate.put(testClass, isUpToDate);
+			}
+			return isUpToDate.booleanValue();
+		}
+	}
+
+	static String getKey(String className, String kind) {
+		return className.substring(className.lastIndexOf('.') + 1) + "." + kind;
+	}
+
+	static String join(String[] values) {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				builder.append(',');
+			}
+			builder.append(values[i]);
+		}
+		return builder.toString();
+	}
+
+	static String[] split(String value) {
+		value = value.trim();
+		if (value.length() == 0) {
+			return new String[0];
+		}
+		final String[] values = value.split(",");
+		for (int i = 0; i < values.length; i++) {
+			values[i] = values[i].trim();
+		}
+		return values;
+	}
+
+	private static Properties getManifest(Class<?> testClass) {
+		final String className = testClass.getName();
+		final int lastDot = className.lastIndexOf('.');
+		final String packageName = lastDot == -1 ? "" : className.substring(0, lastDot);
+		synchronized (manifests) {
+			Map<String, Properties> manifestsForLoader = manifests.get(testClass.getClassLoader());
+			if (manifestsForLoader == null) {
+				manifestsForLoader = new HashMap<String, Properties>();
+				manifests.put(testClass.getClassLoader(), manifestsForLoader);
+			}
+			Properties manifest = manifestsForLoader.get(packageName);
+			if (manifest == null) {
+				manifest = loadManifest(testClass);
+				manifestsForLoader.put(packageName, manifest);
+			}
+			return manifest;
+		}
+	}
+
+	private static Properties loadManifest(Class<?> testClass) {
+		final URL url = testClass.getResource(FILE_NAME);
+		if (url == null) {
+			return NO_MANIFEST;
+		}
+		final Properties manifest = new Properties();
+		InputStream in = null;
+		try {
+			in = url.openStream();
+			manifest.load(in);
+		} catch (IOException e) {
+			return NO_MANIFEST;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// Ignore
+				}
+			}
+		}
+		return manifest;
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2008 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.powermock.tests.utils.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.powermock.tests.utils.IgnorePackagesExtractor;
+import org.powermock.tests.utils.TestClassesExtractor;
+
+/**
+ * Build time tool that writes a {@link TestPlanManifest} for every package in
+ * a directory of compiled test classes, so that the test suite chunkers don't
+ * need to instantiate interface configured test classes or probe their
+ * annotations when the tests run. Usage:
+ * 
+ * <pre>
+ * java org.powermock.tests.utils.impl.TestPlanManifestGenerator &lt;classes directory&gt; [output directory]
+ * </pre>
+ * 
+ * The test classes are loaded from the classes directory, their dependencies
+ * from the class path. The manifests are written to the classes directory
+ * unless an output directory is given. Test classes that are recompiled after
+ * the manifests have been generated are extracted reflectively again until
+ * the manifests are regenerated.
+ */
+public class TestPlanManifestGenerator {
+
+	private static final String CLASS_FILE_SUFFIX = ".class";
+
+	private final TestClassesExtractor prepareForTestExtractor = new PrepareForTestExtractorImpl();
+
+	private final TestClassesExtractor suppressionExtractor = new StaticConstructorSuppressExtractorImpl();
+
+	private final IgnorePackagesExtractor ignorePackagesExtractor = new PowerMockIgnorePackagesExtractorImpl();
+
+	private final Map<String, Properties> manifests = new TreeMap<String, Properties>();
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1 || args.length > 2) {
+			System.err.println("Usage: " + TestPlanManifestGenerator.class.getName() + " <classes directory> [output directory]");
+			System.exit(1);
+		}
+		final File classesDirectory = new File(args[0]);
+		final File outputDirectory = args.length == 2 ? new File(args[1]) : classesDirectory;
+		// Existing manifests must not be used to create the new ones.
+		System.setProperty(TestPlanManifest.DISABLED_PROPERTY, "true");
+		final ClassLoader classLoader = new URLClassLoader(new URL[] { classesDirectory.toURI().toURL() }, Thread.currentThread()
+				.getContextClassLoader());
+		final TestPlanManifestGenerator generator = new TestPlanManifestGenerator();
+		generator.scan(classLoader, classesDirectory, "");
+		generator.write(outputDirectory);
+	}
+
+	private void scan(ClassLoader classLoader, File directory, String packageName) {
+		final File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files);
+		for (File file : files) {
+			final String name = file.getName();
+			if (file.isDirectory()) {
+				scan(classLoader, file, packageName.length() == 0 ? name : packageName + "." + name);
+			} else if (name.endsWith(CLASS_FILE_SUFFIX)) {
+				final String simpleName = name.substring(0, name.length() - CLASS_FILE_SUFFIX.length());
+				addClass(classLoader, packageName, packageName.length() == 0 ? simpleName : packageName + "." + simpleName);
+			}
+		}
+	}
+
+	private void addClass(ClassLoader classLoader, String packageName, String className) {
+		final Class<?> testClass;
+		final String[] classesToPrepare;
+		final String[] classesToSuppress;
+		final String[] packagesToIgnore;
+		final String checksum;
+		try {
+			testClass = Class.forName(className, false, classLoader);
+			if (testClass.isInterface() || testClass.isAnnotation() || Modifier.isAbstract(testClass.getModifiers())
+					|| testClass.isAnonymousClass() || testClass.isLocalClass()) {
+				return;
+			}
+			classesToPrepare = prepareForTestExtractor.getTestClasses(testClass);
+			classesToSuppress = suppressionExtractor.getTestClasses(testClass);
+			packagesToIgnore = ignorePackagesExtractor.getPackagesToIgnore(testClass);
+			checksum = TestPlanManifest.getChecksum(testClass);
+		} catch (Throwable e) {
+			// Not a class that can be used as a test, the chunkers won't ask for it.
+			return;
+		}
+		Properties manifest = manifests.get(packageName);
+		if (manifest == null) {
+			manifest = new Properties();
+			manifests.put(packageName, manifest);
+		}
+		put(manifest, className, TestPlanManifest.PREPARE, classesToPrepare);
+		put(manifest, className, TestPlanManifest.SUPPRESS, classesToSuppress);
+		put(manifest, className, TestPlanManifest.IGNORE, packagesToIgnore);
+		manifest.setProperty(TestPlanManifest.getKey(className, TestPlanManifest.CHECKSUM), checksum);
+	}
+
+	private void put(Properties manifest, String className, String kind, String[] values) {
+		final String[] sortedValues = values == null ? new String[0] : values.clone();
+		Arrays.sort(sortedValues);
+		manifest.setProperty(TestPlanManifest.getKey(className, kind), TestPlanManifest.join(sortedValues));
+	}
+
+	private void write(File outputDirectory) throws IOException {
+		for (Iterator<Map.Entry<String, Properties>> iterator = manifests.entrySet().iterator(); iterator.hasNext();) {
+			final Map.Entry<String, Properties> entry = iterator.next();
+			final File directory = new File(outputDirectory, entry.getKey().replace('.', File.separatorChar));
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Couldn't create directory " + directory);
+			}
+			final OutputStream out = new FileOutputStream(new File(directory, TestPlanManifest.FILE_NAME));
+			try {
+				entry.getValue().store(out, "PowerMock test plan, generated by " + TestPlanManifestGenerator.class.getName());
+			} finally {
+				out.close();
+			}
+		}
+	}
+}
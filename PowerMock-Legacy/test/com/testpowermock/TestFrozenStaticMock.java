@@ -0,0 +1,83 @@
+package com.testpowermock;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.exceptions.base.MockitoException;
+import org.mockito.exceptions.verification.TooLittleActualInvocations;
+import org.mockito.internal.verification.InOrderWrapper;
+import org.mockito.internal.verification.Times;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(TestFrozenStaticMock.ClassWithStaticMethods.class)
+public class TestFrozenStaticMock {
+
+	public static class ClassWithStaticMethods {
+		public static String echo(String value) {
+			return value;
+		}
+	}
+
+	@Test
+	public void testFrozenMethodsAreAnsweredAndVerifiedByCount() {
+		PowerMockito.mockStatic(ClassWithStaticMethods.class);
+		PowerMockito.when(ClassWithStaticMethods.echo(anyString())).thenReturn("A");
+		PowerMockito.freezeStatic(ClassWithStaticMethods.class);
+
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("A", ClassWithStaticMethods.echo("a"));
+		}
+
+		PowerMockito.verifyStatic(times(1000));
+		ClassWithStaticMethods.echo(anyString());
+		PowerMockito.unfreezeStatic(ClassWithStaticMethods.class);
+	}
+
+	@Test
+	public void testStubbingCanBeChangedAfterUnfreezing() {
+		PowerMockito.mockStatic(ClassWithStaticMethods.class);
+		PowerMockito.when(ClassWithStaticMethods.echo(anyString())).thenReturn("A");
+		PowerMockito.freezeStatic(ClassWithStaticMethods.class);
+		assertEquals("A", ClassWithStaticMethods.echo("a"));
+
+		PowerMockito.unfreezeStatic(ClassWithStaticMethods.class);
+		PowerMockito.when(ClassWithStaticMethods.echo(anyString())).thenReturn("B");
+
+		assertEquals("B", ClassWithStaticMethods.echo("a"));
+		PowerMockito.verifyStatic(times(2));
+		ClassWithStaticMethods.echo("a");
+	}
+
+	@Test(expected = TooLittleActualInvocations.class)
+	public void testVerifyStaticFailsWhenFrozenMethodIsInvokedLessOften() {
+		PowerMockito.mockStatic(ClassWithStaticMethods.class);
+		PowerMockito.when(ClassWithStaticMethods.echo(anyString())).thenReturn("A");
+		PowerMockito.freezeStatic(ClassWithStaticMethods.class);
+
+		ClassWithStaticMethods.echo("a");
+		ClassWithStaticMethods.echo("a");
+
+		PowerMockito.verifyStatic(times(3));
+		ClassWithStaticMethods.echo(anyString());
+	}
+
+	@Test(expected = MockitoException.class)
+	public void testInOrderVerificationOfFrozenMethodIsRejected() {
+		PowerMockito.mockStatic(ClassWithStaticMethods.class);
+		PowerMockito.when(ClassWithStaticMethods.echo(anyString())).thenReturn("A");
+		PowerMockito.freezeStatic(ClassWithStaticMethods.class);
+
+		ClassWithStaticMethods.echo("a");
+
+		PowerMockito.verifyStatic(new InOrderWrapper(new Times(1), Collections.<Object> singletonList(ClassWithStaticMethods.class)));
+		ClassWithStaticMethods.echo(anyString());
+	}
+}
@@ -0,0 +1,90 @@
+package com.testpowermock;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyObject;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.exceptions.base.MockitoException;
+import org.mockito.exceptions.verification.TooLittleActualInvocations;
+import org.mockito.internal.verification.InOrderWrapper;
+import org.mockito.internal.verification.Times;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(TestLightweightStaticMock.ClassWithStaticMethods.class)
+public class TestLightweightStaticMock {
+
+	public static class ClassWithStaticMethods {
+		public static String echo(String value) {
+			return value;
+		}
+
+		public static void accept(Object value) {
+		}
+	}
+
+	@Test
+	public void testVerifyStaticTimesIsAnsweredFromTheCounters() {
+		PowerMockito.mockStatic(ClassWithStaticMethods.class, true);
+		PowerMockito.when(ClassWithStaticMethods.echo("a")).thenReturn("A");
+
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("A", ClassWithStaticMethods.echo("a"));
+		}
+		ClassWithStaticMethods.echo(new String("b"));
+
+		PowerMockito.verifyStatic(times(1000));
+		ClassWithStaticMethods.echo("a");
+		PowerMockito.verifyStatic(times(1));
+		ClassWithStaticMethods.echo("b");
+		PowerMockito.verifyStatic(never());
+		ClassWithStaticMethods.echo("c");
+	}
+
+	@Test(expected = TooLittleActualInvocations.class)
+	public void testVerifyStaticFailsWhenCountedLessOften() {
+		PowerMockito.mockStatic(ClassWithStaticMethods.class, true);
+
+		ClassWithStaticMethods.echo("a");
+		ClassWithStaticMethods.echo("a");
+
+		PowerMockito.verifyStatic(times(3));
+		ClassWithStaticMethods.echo("a");
+	}
+
+	/**
+	 * Arguments that aren't values are counted by identity, so each new
+	 * object is retained as an invocation of its own.
+	 */
+	@Test
+	public void testNonValueArgumentsAreCountedByIdentity() {
+		PowerMockito.mockStatic(ClassWithStaticMethods.class, true);
+		final Object reused = new Object();
+
+		ClassWithStaticMethods.accept(reused);
+		ClassWithStaticMethods.accept(reused);
+		ClassWithStaticMethods.accept(new Object());
+
+		PowerMockito.verifyStatic(times(2));
+		ClassWithStaticMethods.accept(reused);
+		PowerMockito.verifyStatic(times(3));
+		ClassWithStaticMethods.accept(anyObject());
+	}
+
+	@Test(expected = MockitoException.class)
+	public void testInOrderVerificationIsRejected() {
+		PowerMockito.mockStatic(ClassWithStaticMethods.class, true);
+
+		ClassWithStaticMethods.echo("a");
+
+		PowerMockito.verifyStatic(new InOrderWrapper(new Times(1), Collections.<Object> singletonList(ClassWithStaticMethods.class)));
+		ClassWithStaticMethods.echo("a");
+	}
+}
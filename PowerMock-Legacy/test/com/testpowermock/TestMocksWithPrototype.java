@@ -0,0 +1,56 @@
+package com.testpowermock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyString;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+public class TestMocksWithPrototype {
+
+	public interface Greeter {
+		String greet(String name);
+
+		int count();
+	}
+
+	@Test
+	public void testStubbingOfPrototypeIsCopied() {
+		final Greeter prototype = PowerMockito.mock(Greeter.class);
+		PowerMockito.when(prototype.greet(anyString())).thenReturn("first", "second");
+		PowerMockito.when(prototype.greet("x")).thenReturn("X");
+		PowerMockito.when(prototype.count()).thenReturn(42);
+
+		final List<Greeter> mocks = PowerMockito.mocks(Greeter.class, 2, prototype);
+
+		assertEquals(2, mocks.size());
+		for (Greeter mock : mocks) {
+			assertNotSame(prototype, mock);
+			assertEquals("X", mock.greet("x"));
+			assertEquals("first", mock.greet("a"));
+			assertEquals("second", mock.greet("b"));
+			assertEquals("second", mock.greet("c"));
+			assertEquals(42, mock.count());
+		}
+		// The consecutive answers of each mock are independent of the prototype
+		assertEquals("first", prototype.greet("a"));
+	}
+
+	@Test
+	public void testMocksWithoutPrototypeAreNotStubbed() {
+		final List<Greeter> mocks = PowerMockito.mocks(Greeter.class, 3);
+
+		assertEquals(3, mocks.size());
+		for (Greeter mock : mocks) {
+			assertNull(mock.greet("a"));
+			assertEquals(0, mock.count());
+		}
+	}
+}
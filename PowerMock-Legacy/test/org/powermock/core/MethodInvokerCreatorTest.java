@@ -0,0 +1,115 @@
+package org.powermock.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MethodInvokerCreatorTest {
+
+	@After
+	public void clearRepository() {
+		MockRepository.clear();
+	}
+
+	@Test
+	public void generatesAnInvokerForPublicMethods() throws Throwable {
+		final MethodInvoker invoker = createInvoker("concat", String.class, int.class, long.class);
+
+		assertTrue(invoker.getClass().getName().contains("$$PowerMockInvoker"));
+		assertEquals("a12", invoker.invoke(new Target(), new Object[] { "a", 1, 2L }));
+	}
+
+	@Test
+	public void invokesStaticAndVoidMethods() throws Throwable {
+		assertEquals(Double.valueOf(3.0), createInvoker("half", double.class).invoke(null, new Object[] { 6.0 }));
+		final Target target = new Target();
+		assertNull(createInvoker("touch").invoke(target, null));
+		assertEquals(1, target.touched);
+	}
+
+	@Test
+	public void widensPrimitiveArgumentsLikeReflection() throws Throwable {
+		final MethodInvoker invoker = createInvoker("concat", String.class, int.class, long.class);
+
+		assertEquals("a12", invoker.invoke(new Target(), new Object[] { "a", Character.valueOf((char) 1), 2 }));
+		assertEquals(Double.valueOf(2.0), createInvoker("half", double.class).invoke(null, new Object[] { 4 }));
+	}
+
+	@Test
+	public void rejectsIllegalArgumentsLikeReflection() throws Throwable {
+		final MethodInvoker invoker = createInvoker("concat", String.class, int.class, long.class);
+
+		assertIllegalArgument(invoker, new Target(), new Object[] { "a", null, 2L });
+		assertIllegalArgument(invoker, new Target(), new Object[] { "a", 1L, 2L });
+		assertIllegalArgument(invoker, new Target(), new Object[] { 1, 1, 2L });
+		assertIllegalArgument(invoker, new Target(), new Object[] { "a", 1 });
+		assertIllegalArgument(invoker, "not a target", new Object[] { "a", 1, 2L });
+	}
+
+	@Test
+	public void doesNotWrapExceptionsThrownByTheMethod() throws Throwable {
+		try {
+			createInvoker("fail").invoke(new Target(), new Object[0]);
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals("failed", e.getMessage());
+		}
+	}
+
+	@Test
+	public void methodProxyThatDelegatesToTheProxiedMethodIsNotInvokedAgain() throws Throwable {
+		final Method method = Target.class.getMethod("touch");
+		final Target target = new Target();
+		final int[] invocations = new int[1];
+		MockRepository.putMethodProxy(method, new InvocationHandler() {
+			public Object invoke(Object proxy, Method proxiedMethod, Object[] args) throws Throwable {
+				invocations[0]++;
+				return MockGateway.methodCall(proxy, "touch", args, new Class<?>[0], "void");
+			}
+		});
+
+		assertSame(MockGateway.PROCEED, MockGateway.methodCall(target, "touch", new Object[0], new Class<?>[0], "void"));
+		assertEquals(1, invocations[0]);
+	}
+
+	private static MethodInvoker createInvoker(String name, Class<?>... parameterTypes) throws Exception {
+		return new MethodInvokerCreator().createMethodInvoker(Target.class.getMethod(name, parameterTypes));
+	}
+
+	private static void assertIllegalArgument(MethodInvoker invoker, Object target, Object[] arguments) throws Throwable {
+		try {
+			invoker.invoke(target, arguments);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	public static class Target {
+		public int touched;
+
+		public String concat(String prefix, int i, long l) {
+			return prefix + i + l;
+		}
+
+		public static double half(double value) {
+			return value / 2;
+		}
+
+		public void touch() {
+			touched++;
+		}
+
+		public void fail() {
+			throw new IllegalStateException("failed");
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package org.powermock.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MockRepositoryScopeTest {
+
+	@Before
+	public void enableTestScopedMode() {
+		MockRepository.setTestScoped(true);
+	}
+
+	@After
+	public void disableTestScopedMode() {
+		MockRepository.exitTestScope();
+		MockRepository.setTestScoped(false);
+		MockRepository.clear();
+	}
+
+	@Test
+	public void testScopeStartsWithTheStateSetUpBeforeTheTest() {
+		MockRepository.putAdditionalState("policy", "global");
+
+		MockRepository.enterTestScope();
+		assertEquals("global", MockRepository.getAdditionalState("policy"));
+		MockRepository.putAdditionalState("policy", "test");
+		MockRepository.putAdditionalState("mock", "test");
+		assertEquals("test", MockRepository.getAdditionalState("policy"));
+		MockRepository.exitTestScope();
+
+		assertEquals("global", MockRepository.getAdditionalState("policy"));
+		assertNull(MockRepository.getAdditionalState("mock"));
+	}
+
+	@Test
+	public void clearingATestScopeKeepsTheStateOutsideOfIt() {
+		MockRepository.putAdditionalState("policy", "global");
+
+		MockRepository.enterTestScope();
+		MockRepository.clear();
+		assertNull(MockRepository.getAdditionalState("policy"));
+		MockRepository.exitTestScope();
+
+		assertEquals("global", MockRepository.getAdditionalState("policy"));
+	}
+
+	@Test
+	public void nestedScopeStartsWithTheStateOfTheEnclosingScope() {
+		MockRepository.enterTestScope();
+		MockRepository.putAdditionalState("policy", "chunk");
+
+		MockRepository.enterTestScope();
+		assertEquals("chunk", MockRepository.getAdditionalState("policy"));
+		MockRepository.putAdditionalState("mock", "test");
+		MockRepository.exitTestScope();
+
+		assertEquals("chunk", MockRepository.getAdditionalState("policy"));
+		assertNull(MockRepository.getAdditionalState("mock"));
+		MockRepository.exitTestScope();
+		assertNull(MockRepository.getAdditionalState("policy"));
+	}
+}
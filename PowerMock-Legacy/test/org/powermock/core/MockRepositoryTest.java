@@ -0,0 +1,102 @@
+package org.powermock.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.powermock.core.spi.MethodInvocationControl;
+
+public class MockRepositoryTest {
+
+	@After
+	public void clearRepository() {
+		MockRepository.clear();
+	}
+
+	@Test
+	public void instanceMocksAreComparedByIdentity() {
+		final EqualMock first = new EqualMock();
+		final EqualMock second = new EqualMock();
+		final MethodInvocationControl firstControl = newInvocationControl();
+		final MethodInvocationControl secondControl = newInvocationControl();
+
+		MockRepository.putInstanceMethodInvocationControl(first, firstControl);
+		MockRepository.putInstanceMethodInvocationControl(second, secondControl);
+		MockRepository.addObjectsToAutomaticallyReplayAndVerify(first);
+
+		assertSame(firstControl, MockRepository.getInstanceMethodInvocationControl(first));
+		assertSame(secondControl, MockRepository.getInstanceMethodInvocationControl(second));
+		assertEquals(1, MockRepository.getObjectsToAutomaticallyReplayAndVerify().size());
+		assertFalse(MockRepository.getObjectsToAutomaticallyReplayAndVerify().contains(second));
+
+		MockRepository.remove(first);
+		assertNull(MockRepository.getInstanceMethodInvocationControl(first));
+		assertSame(secondControl, MockRepository.getInstanceMethodInvocationControl(second));
+	}
+
+	@Test
+	public void publishedSnapshotsNeverChange() {
+		final Object mock = new Object();
+		final MockRepositorySnapshot before = MockRepository.getSnapshot();
+
+		MockRepository.putInstanceMethodInvocationControl(mock, newInvocationControl());
+		final MockRepositorySnapshot after = MockRepository.getSnapshot();
+		MockRepository.clear();
+
+		assertNull(before.getInstanceMethodInvocationControl(mock));
+		assertTrue(after.getInstanceMethodInvocationControl(mock) != null);
+		assertNull(MockRepository.getInstanceMethodInvocationControl(mock));
+		assertTrue(after.getVersion() > before.getVersion());
+	}
+
+	@Test
+	public void putsManyInstanceMocksAtOnce() {
+		final Map<Object, MethodInvocationControl> invocationControls = new IdentityHashMap<Object, MethodInvocationControl>();
+		for (int i = 0; i < 1000; i++) {
+			invocationControls.put(new EqualMock(), newInvocationControl());
+		}
+		final long version = MockRepository.getSnapshot().getVersion();
+
+		MockRepository.putInstanceMethodInvocationControls(invocationControls, true);
+
+		assertEquals(version + 1, MockRepository.getSnapshot().getVersion());
+		assertEquals(1000, MockRepository.getObjectsToAutomaticallyReplayAndVerify().size());
+		for (Map.Entry<Object, MethodInvocationControl> entry : invocationControls.entrySet()) {
+			assertSame(entry.getValue(), MockRepository.getInstanceMethodInvocationControl(entry.getKey()));
+		}
+	}
+
+	static MethodInvocationControl newInvocationControl() {
+		return (MethodInvocationControl) Proxy.newProxyInstance(MockRepositoryTest.class.getClassLoader(),
+				new Class<?>[] { MethodInvocationControl.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						return null;
+					}
+				});
+	}
+
+	/**
+	 * All instances are equal, like mocks that override <code>equals</code>.
+	 */
+	private static class EqualMock {
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof EqualMock;
+		}
+
+		@Override
+		public int hashCode() {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package org.powermock.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PersistentIdentityMapTest {
+
+	@Test
+	public void comparesKeysByIdentity() {
+		final String key = new String("key");
+		final PersistentIdentityMap<Object, String> map = PersistentIdentityMap.<Object, String> empty().with(key, "value");
+
+		assertEquals("value", map.get(key));
+		assertNull(map.get(new String("key")));
+		assertFalse(map.containsKey(new String("key")));
+		assertTrue(map.keySet().contains(key));
+		assertFalse(map.keySet().contains(new String("key")));
+	}
+
+	@Test
+	public void modificationsDoNotChangeTheOriginalMap() {
+		final Object key = new Object();
+		final PersistentIdentityMap<Object, String> empty = PersistentIdentityMap.empty();
+		final PersistentIdentityMap<Object, String> one = empty.with(key, "one");
+		final PersistentIdentityMap<Object, String> two = one.with(key, "two");
+		final PersistentIdentityMap<Object, String> removed = two.without(key);
+
+		assertEquals(0, empty.size());
+		assertNull(empty.get(key));
+		assertEquals("one", one.get(key));
+		assertEquals("two", two.get(key));
+		assertEquals(1, two.size());
+		assertTrue(removed.isEmpty());
+		assertSame(one, one.with(key, "one"));
+		assertSame(one, one.without(new Object()));
+	}
+
+	@Test
+	public void behavesLikeAnIdentityHashMap() {
+		final Random random = new Random(42);
+		final List<Object> keys = new ArrayList<Object>();
+		for (int i = 0; i < 2000; i++) {
+			keys.add(new Object());
+		}
+		final Map<Object, Integer> expected = new IdentityHashMap<Object, Integer>();
+		PersistentIdentityMap<Object, Integer> map = PersistentIdentityMap.empty();
+		for (int i = 0; i < 20000; i++) {
+			final Object key = keys.get(random.nextInt(keys.size()));
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				map = map.without(key);
+			} else {
+				expected.put(key, i);
+				map = map.with(key, i);
+			}
+		}
+
+		assertEquals(expected.size(), map.size());
+		assertEquals(expected.size(), map.keySet().size());
+		for (Object key : keys) {
+			assertEquals(expected.get(key), map.get(key));
+			assertEquals(expected.containsKey(key), map.containsKey(key));
+		}
+		for (Object key : map.keySet()) {
+			assertTrue(expected.containsKey(key));
+		}
+	}
+
+	@Test
+	public void keepsKeysWithTheSameIdentityHashCode() {
+		final Object[] keys = findKeysWithTheSameIdentityHashCode();
+		final Object other = new Object();
+		PersistentIdentityMap<Object, String> map = PersistentIdentityMap.<Object, String> empty().with(keys[0], "first").with(other,
+				"other").with(keys[1], "second");
+
+		assertEquals(3, map.size());
+		assertEquals("first", map.get(keys[0]));
+		assertEquals("second", map.get(keys[1]));
+		assertEquals("other", map.get(other));
+		map = map.without(keys[0]);
+		assertEquals(2, map.size());
+		assertNull(map.get(keys[0]));
+		assertEquals("second", map.get(keys[1]));
+		assertEquals("other", map.get(other));
+	}
+
+	private static Object[] findKeysWithTheSameIdentityHashCode() {
+		final Map<Integer, Object> objects = new HashMap<Integer, Object>();
+		while (true) {
+			final Object object = new Object();
+			final Object previous = objects.put(System.identityHashCode(object), object);
+			if (previous != null) {
+				return new Object[] { previous, object };
+			}
+		}
+	}
+}
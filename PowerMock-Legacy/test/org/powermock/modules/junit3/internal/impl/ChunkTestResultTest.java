@@ -0,0 +1,117 @@
+package org.powermock.modules.junit3.internal.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestListener;
+import junit.framework.TestResult;
+
+public class ChunkTestResultTest {
+
+	@org.junit.Test
+	public void eventsOfATestAreForwardedTogetherWhenTheTestEnds() {
+		final TestResult target = new TestResult();
+		final List<String> events = recordEvents(target);
+		final ChunkTestResult first = new ChunkTestResult(target);
+		final ChunkTestResult second = new ChunkTestResult(target);
+		final Test a = new NamedTest("a");
+		final Test b = new NamedTest("b");
+
+		first.startTest(a);
+		second.startTest(b);
+		second.addFailure(b, new AssertionFailedError());
+		first.addError(a, new RuntimeException());
+		assertEquals(0, events.size());
+		second.endTest(b);
+		first.endTest(a);
+
+		assertEquals(Arrays.asList("start b", "failure b", "end b", "start a", "error a", "end a"), events);
+		assertEquals(1, target.errorCount());
+		assertEquals(1, target.failureCount());
+		assertEquals(2, target.runCount());
+	}
+
+	@org.junit.Test
+	public void problemsOutsideOfATestAreForwardedImmediately() {
+		final TestResult target = new TestResult();
+		final List<String> events = recordEvents(target);
+		final ChunkTestResult chunk = new ChunkTestResult(target);
+
+		chunk.addError(new NamedTest("setUp"), new RuntimeException());
+
+		assertEquals(Arrays.asList("error setUp"), events);
+	}
+
+	@org.junit.Test
+	public void eventsOfTestsInParallelChunksAreNeverInterleaved() throws Exception {
+		final TestResult target = new TestResult();
+		final List<String> events = recordEvents(target);
+		final Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			final String chunkName = "chunk" + i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					final ChunkTestResult chunk = new ChunkTestResult(target);
+					for (int j = 0; j < 200; j++) {
+						final Test test = new NamedTest(chunkName + "." + j);
+						chunk.startTest(test);
+						chunk.addFailure(test, new AssertionFailedError());
+						chunk.endTest(test);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(3 * 4 * 200, events.size());
+		for (int i = 0; i < events.size(); i += 3) {
+			final String test = events.get(i).substring("start ".length());
+			assertEquals("start " + test, events.get(i));
+			assertEquals("failure " + test, events.get(i + 1));
+			assertEquals("end " + test, events.get(i + 2));
+		}
+	}
+
+	private static List<String> recordEvents(TestResult result) {
+		final List<String> events = new ArrayList<String>();
+		result.addListener(new TestListener() {
+			public void startTest(Test test) {
+				events.add("start " + test);
+			}
+
+			public void endTest(Test test) {
+				events.add("end " + test);
+			}
+
+			public void addFailure(Test test, AssertionFailedError t) {
+				events.add("failure " + test);
+			}
+
+			public void addError(Test test, Throwable t) {
+				events.add("error " + test);
+			}
+		});
+		return events;
+	}
+
+	private static class NamedTest extends TestCase {
+		public NamedTest(String name) {
+			super(name);
+		}
+
+		@Override
+		public String toString() {
+			return getName();
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package org.powermock.modules.junit3.internal.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import junit.framework.TestResult;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit3.internal.PowerMockJUnit3RunnerDelegate;
+import org.powermock.tests.utils.TestChunk;
+import org.powermock.tests.utils.impl.AbstractTestSuiteChunkerImpl;
+
+public class JUnit3TestSuiteChunkerImplTest {
+
+	@Before
+	public void mergeChunks() {
+		System.setProperty(AbstractTestSuiteChunkerImpl.MERGE_CHUNKS_PROPERTY, "true");
+	}
+
+	@After
+	public void clearMergeChunks() {
+		System.clearProperty(AbstractTestSuiteChunkerImpl.MERGE_CHUNKS_PROPERTY);
+	}
+
+	@Test
+	public void mergedChunksShareTheClassLoaderUntilAllOfThemReleasedIt() throws Exception {
+		final List<TestChunk> chunks = getChunksWithTests(new PlainClassLoaderChunker());
+		assertEquals(2, chunks.size());
+
+		final ClassLoader classLoader = chunks.get(0).getClassLoader();
+		assertSame(classLoader, chunks.get(1).getClassLoader());
+		chunks.get(0).releaseClassLoader();
+		assertSame(classLoader, chunks.get(0).getClassLoader());
+		chunks.get(0).releaseClassLoader();
+		chunks.get(1).releaseClassLoader();
+
+		assertNotSame(classLoader, chunks.get(0).getClassLoader());
+	}
+
+	@Test
+	public void chunksReleasedBeforeTheClassLoaderWasCreatedDoNotKeepItAlive() throws Exception {
+		final List<TestChunk> chunks = getChunksWithTests(new PlainClassLoaderChunker());
+		assertEquals(2, chunks.size());
+
+		// Like a chunk of another shard
+		chunks.get(1).releaseClassLoader();
+		final ClassLoader classLoader = chunks.get(0).getClassLoader();
+		chunks.get(0).releaseClassLoader();
+
+		assertNotSame(classLoader, chunks.get(0).getClassLoader());
+	}
+
+	@Test
+	public void delegatesCreatedToListTheTestsAreKeptUntilTheSuiteIsRun() throws Exception {
+		final CountingChunker chunker = new CountingChunker();
+		chunker.testAt(0);
+		chunker.tests();
+		final int listingDelegates = chunker.createdDelegates;
+		chunker.run(new TestResult());
+
+		final CountingChunker runOnlyChunker = new CountingChunker();
+		runOnlyChunker.run(new TestResult());
+		assertEquals(runOnlyChunker.createdDelegates, listingDelegates);
+		assertEquals(runOnlyChunker.createdDelegates, chunker.createdDelegates);
+	}
+
+	@Test
+	public void runTestOnlyCreatesTheDelegateOfTheTest() throws Exception {
+		final CountingChunker chunker = new CountingChunker();
+		final SecondTest test = new SecondTest();
+		test.setName("testSecond");
+		final TestResult result = new TestResult();
+
+		chunker.runTest(test, result);
+
+		assertEquals(1, chunker.createdDelegates);
+		assertEquals(1, result.runCount());
+	}
+
+	private static List<TestChunk> getChunksWithTests(JUnit3TestSuiteChunkerImpl chunker) {
+		final List<TestChunk> chunks = new ArrayList<TestChunk>();
+		for (TestChunk chunk : chunker.getTestChunks()) {
+			if (!chunk.getTestMethodsToBeExecutedByThisClassloader().isEmpty()) {
+				chunks.add(chunk);
+			}
+		}
+		return chunks;
+	}
+
+	/**
+	 * Creates plain class loaders instead of mock class loaders, only the
+	 * sharing of the class loaders is of interest here.
+	 */
+	private static class PlainClassLoaderChunker extends JUnit3TestSuiteChunkerImpl {
+		@SuppressWarnings("unchecked")
+		public PlainClassLoaderChunker() throws Exception {
+			super(FirstTest.class, SecondTest.class);
+		}
+
+		@Override
+		public ClassLoader createNewClassloader(Class<?> testClass, String[] classesToLoadByMockClassloader, String[] packagesToIgnore) {
+			return new ClassLoader(getClass().getClassLoader()) {
+			};
+		}
+	}
+
+	private static class CountingChunker extends PlainClassLoaderChunker {
+		private int createdDelegates;
+
+		public CountingChunker() throws Exception {
+		}
+
+		@Override
+		protected PowerMockJUnit3RunnerDelegate createDelegatorFromClassloader(ClassLoader classLoader, Class<?> testClass,
+				List<Method> methodsToTest) throws Exception {
+			createdDelegates++;
+			return super.createDelegatorFromClassloader(classLoader, testClass, methodsToTest);
+		}
+	}
+
+	public static class Collaborator {
+	}
+
+	@PrepareForTest(Collaborator.class)
+	public static class FirstTest extends TestCase {
+		public void testFirst() {
+		}
+	}
+
+	@PrepareForTest(Collaborator.class)
+	public static class SecondTest extends TestCase {
+		public void testSecond() {
+		}
+	}
+}
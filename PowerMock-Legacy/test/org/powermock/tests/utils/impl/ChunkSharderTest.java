@@ -0,0 +1,117 @@
+package org.powermock.tests.utils.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class ChunkSharderTest {
+
+	private static final int SHARD_COUNT = 4;
+
+	@Test
+	public void singleChunkClassesAreSpreadOverAllShards() throws Exception {
+		final int[] chunksPerShard = new int[SHARD_COUNT];
+		for (int testClass = 0; testClass < 40; testClass++) {
+			// Every test class gets its own chunker, and so its own sharder
+			final List<String> chunkKeys = Collections.singletonList("com.example.Test" + testClass + "#testSomething");
+			int selectedBy = -1;
+			for (int shard = 0; shard < SHARD_COUNT; shard++) {
+				if (new ChunkSharder(shard, SHARD_COUNT, null).select(chunkKeys, Collections.singletonList(1))[0]) {
+					assertEquals("Chunk selected by more than one shard", -1, selectedBy);
+					selectedBy = shard;
+				}
+			}
+			assertTrue("Chunk not selected by any shard", selectedBy >= 0);
+			chunksPerShard[selectedBy]++;
+		}
+		for (int shard = 0; shard < SHARD_COUNT; shard++) {
+			assertTrue("No chunks in shard " + shard, chunksPerShard[shard] > 0);
+		}
+	}
+
+	@Test
+	public void chunksOfSuiteAreBalancedByTestCountWithoutTimings() throws Exception {
+		final List<String> chunkKeys = new ArrayList<String>();
+		final List<Integer> testCounts = new ArrayList<Integer>();
+		for (int i = 0; i < 9; i++) {
+			chunkKeys.add("com.example.Test" + i + "#testSomething");
+			testCounts.add(i == 0 ? 12 : 2);
+		}
+		final int[] testsPerShard = new int[2];
+		for (int shard = 0; shard < 2; shard++) {
+			final boolean[] selected = new ChunkSharder(shard, 2, null).select(chunkKeys, testCounts);
+			for (int i = 0; i < selected.length; i++) {
+				if (selected[i]) {
+					testsPerShard[shard] += testCounts.get(i);
+				}
+			}
+		}
+		assertEquals(14, testsPerShard[0]);
+		assertEquals(14, testsPerShard[1]);
+	}
+
+	@Test
+	public void timedChunksArePlannedOverAllShards() throws Exception {
+		final File timingFile = File.createTempFile("powermock-timings", ".properties");
+		try {
+			final Properties timings = new Properties();
+			timings.setProperty("com.example.SlowTest#testA", "1000");
+			timings.setProperty("com.example.SlowTest#testB", "900");
+			timings.setProperty("com.example.FastTest#testA", "100");
+			timings.setProperty("com.example.FastTest#testB", "50");
+			final OutputStream out = new FileOutputStream(timingFile);
+			try {
+				timings.store(out, null);
+			} finally {
+				out.close();
+			}
+
+			final ChunkSharder sharder = new ChunkSharder(0, 2, timingFile);
+			assertEquals(0, sharder.getShard("com.example.SlowTest#testA"));
+			assertEquals(1, sharder.getShard("com.example.SlowTest#testB"));
+			assertEquals(1, sharder.getShard("com.example.FastTest#testA"));
+			assertEquals(0, sharder.getShard("com.example.FastTest#testB"));
+			// The plan is the same for a sharder that only sees one of the chunks
+			assertFalse(new ChunkSharder(0, 2, timingFile).select(Collections.singletonList("com.example.FastTest#testA"),
+					Collections.singletonList(1))[0]);
+		} finally {
+			timingFile.delete();
+		}
+	}
+
+	@Test
+	public void timingFileOfTheHistoryIsPlannedByChunk() throws Exception {
+		final File timingFile = File.createTempFile("powermock-timings", ".properties");
+		try {
+			final ChunkTimingHistory history = new ChunkTimingHistory(timingFile);
+			history.record("A#a", 0, 100);
+			history.record("B#b", 0, 60);
+			history.record("C#c", 0, 40);
+			history.save();
+
+			final ChunkSharder sharder = new ChunkSharder(0, 2, timingFile);
+			assertEquals(0, sharder.getShard("A#a"));
+			assertEquals(1, sharder.getShard("B#b"));
+			assertEquals(1, sharder.getShard("C#c"));
+		} finally {
+			timingFile.delete();
+		}
+	}
+
+	@Test
+	public void allChunksAreSelectedWhenNotSharded() throws Exception {
+		final boolean[] selected = new ChunkSharder(0, 1, null).select(Collections.singletonList("com.example.Test#testA"),
+				Collections.singletonList(1));
+		assertTrue(selected[0]);
+	}
+}
@@ -0,0 +1,118 @@
+package org.powermock.tests.utils.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.powermock.core.MockRepository;
+
+public class ParallelChunkExecutorTest {
+
+	@After
+	public void clearRepository() {
+		MockRepository.clear();
+	}
+
+	@Test
+	public void onlyTheChunksOfAParallelRunAreTestScoped() throws Exception {
+		final List<Boolean> testScoped = Collections.synchronizedList(new ArrayList<Boolean>());
+		final CountDownLatch chunksStarted = new CountDownLatch(2);
+		final CountDownLatch checkedOtherThread = new CountDownLatch(1);
+		final List<Runnable> chunks = new ArrayList<Runnable>();
+		for (int i = 0; i < 2; i++) {
+			chunks.add(new Runnable() {
+				public void run() {
+					testScoped.add(MockRepository.isTestScoped());
+					chunksStarted.countDown();
+					await(checkedOtherThread);
+				}
+			});
+		}
+		final Thread run = new Thread() {
+			@Override
+			public void run() {
+				new ParallelChunkExecutor(2).execute(chunks);
+			}
+		};
+		run.start();
+
+		assertTrue(chunksStarted.await(10, TimeUnit.SECONDS));
+		assertFalse(MockRepository.isTestScoped());
+		checkedOtherThread.countDown();
+		run.join();
+
+		assertEquals(2, testScoped.size());
+		assertTrue(testScoped.get(0));
+		assertTrue(testScoped.get(1));
+	}
+
+	@Test
+	public void chunksAreNotTestScopedWhenDisabled() throws Exception {
+		final List<Boolean> testScoped = Collections.synchronizedList(new ArrayList<Boolean>());
+		final List<Runnable> chunks = new ArrayList<Runnable>();
+		for (int i = 0; i < 2; i++) {
+			chunks.add(new Runnable() {
+				public void run() {
+					testScoped.add(MockRepository.isTestScoped());
+				}
+			});
+		}
+
+		new ParallelChunkExecutor(2, false).execute(chunks);
+
+		assertEquals(2, testScoped.size());
+		assertFalse(testScoped.get(0));
+		assertFalse(testScoped.get(1));
+	}
+
+	@Test
+	public void parallelChunksDoNotShareState() throws Exception {
+		MockRepository.putAdditionalState("global", "value");
+		final List<Object> seen = Collections.synchronizedList(new ArrayList<Object>());
+		final CountDownLatch statePut = new CountDownLatch(2);
+		final List<Runnable> chunks = new ArrayList<Runnable>();
+		for (int i = 0; i < 2; i++) {
+			final String chunkName = "chunk" + i;
+			chunks.add(new Runnable() {
+				public void run() {
+					MockRepository.enterTestScope();
+					try {
+						MockRepository.putAdditionalState("chunk", chunkName);
+						statePut.countDown();
+						await(statePut);
+						seen.add(MockRepository.getAdditionalState("global"));
+						seen.add(chunkName.equals(MockRepository.getAdditionalState("chunk")));
+					} finally {
+						MockRepository.exitTestScope();
+					}
+				}
+			});
+		}
+
+		new ParallelChunkExecutor(2).execute(chunks);
+
+		assertEquals(4, seen.size());
+		assertEquals(2, Collections.frequency(seen, "value"));
+		assertEquals(2, Collections.frequency(seen, Boolean.TRUE));
+		assertNull(MockRepository.getAdditionalState("chunk"));
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			if (!latch.await(10, TimeUnit.SECONDS)) {
+				throw new IllegalStateException("Timed out");
+			}
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
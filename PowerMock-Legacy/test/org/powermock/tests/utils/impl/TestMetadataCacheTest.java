@@ -0,0 +1,98 @@
+package org.powermock.tests.utils.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.AnnotatedElement;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.powermock.tests.utils.IgnorePackagesExtractor;
+import org.powermock.tests.utils.TestClassesExtractor;
+
+public class TestMetadataCacheTest {
+
+	private final CountingExtractor prepareForTestExtractor = new CountingExtractor();
+
+	private final CountingExtractor suppressionExtractor = new CountingExtractor();
+
+	private final CountingExtractor ignorePackagesExtractor = new CountingExtractor();
+
+	private final TestMetadataCache cache = new TestMetadataCache(prepareForTestExtractor, suppressionExtractor,
+			ignorePackagesExtractor);
+
+	@Test
+	public void eachElementIsExtractedOnce() throws Exception {
+		prepareForTestExtractor.results.put(String.class, new String[] { "a.B" });
+
+		assertArrayEquals(new String[] { "a.B" }, cache.getPrepareForTestExtractor().getTestClasses(String.class));
+		assertArrayEquals(new String[] { "a.B" }, cache.getPrepareForTestExtractor().getTestClasses(String.class));
+		assertTrue(cache.getPrepareForTestExtractor().isPrepared(String.class, "a.B"));
+		assertFalse(cache.getPrepareForTestExtractor().isPrepared(String.class, "a.C"));
+
+		assertEquals(1, prepareForTestExtractor.invocations);
+		assertEquals(1, cache.getExtractionCount());
+		assertEquals(3, cache.getCacheHitCount());
+	}
+
+	@Test
+	public void nullResultsAreCached() throws Exception {
+		assertNull(cache.getSuppressionExtractor().getTestClasses(Integer.class));
+		assertNull(cache.getSuppressionExtractor().getTestClasses(Integer.class));
+
+		assertEquals(1, suppressionExtractor.invocations);
+		assertEquals(1, cache.getExtractionCount());
+		assertEquals(1, cache.getCacheHitCount());
+	}
+
+	@Test
+	public void extractorsHaveSeparateCaches() throws Exception {
+		prepareForTestExtractor.results.put(String.class, new String[] { "a.B" });
+		suppressionExtractor.results.put(String.class, new String[] { "c.D" });
+		ignorePackagesExtractor.results.put(String.class, new String[] { "e.*" });
+
+		assertArrayEquals(new String[] { "a.B" }, cache.getPrepareForTestExtractor().getTestClasses(String.class));
+		assertArrayEquals(new String[] { "c.D" }, cache.getSuppressionExtractor().getTestClasses(String.class));
+		assertArrayEquals(new String[] { "e.*" }, cache.getIgnorePackagesExtractor().getPackagesToIgnore(String.class));
+
+		assertEquals(3, cache.getExtractionCount());
+		assertEquals(0, cache.getCacheHitCount());
+	}
+
+	@Test
+	public void callersCannotModifyTheCachedResult() throws Exception {
+		ignorePackagesExtractor.results.put(String.class, new String[] { "e.*" });
+
+		final String[] firstResult = cache.getIgnorePackagesExtractor().getPackagesToIgnore(String.class);
+		firstResult[0] = "modified";
+		final String[] secondResult = cache.getIgnorePackagesExtractor().getPackagesToIgnore(String.class);
+
+		assertNotSame(firstResult, secondResult);
+		assertArrayEquals(new String[] { "e.*" }, secondResult);
+	}
+
+	private static class CountingExtractor implements TestClassesExtractor, IgnorePackagesExtractor {
+		private final Map<AnnotatedElement, String[]> results = new HashMap<AnnotatedElement, String[]>();
+
+		private int invocations = 0;
+
+		public String[] getTestClasses(AnnotatedElement element) {
+			invocations++;
+			final String[] result = results.get(element);
+			return result == null ? null : result.clone();
+		}
+
+		public boolean isPrepared(AnnotatedElement element, String fullyQualifiedClassName) {
+			throw new UnsupportedOperationException();
+		}
+
+		public String[] getPackagesToIgnore(AnnotatedElement element) {
+			return getTestClasses(element);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package org.powermock.tests.utils.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+
+public class TestPlanManifestTest {
+
+	private static final String PACKAGE_DIRECTORY = TestPlanManifestTest.class.getPackage().getName().replace('.', File.separatorChar);
+
+	private File classesDirectory;
+
+	@Before
+	public void copyTestClass() throws Exception {
+		classesDirectory = File.createTempFile("powermock-test-plan", "");
+		classesDirectory.delete();
+		final File packageDirectory = new File(classesDirectory, PACKAGE_DIRECTORY);
+		packageDirectory.mkdirs();
+		final String classFileName = getClassFileName(ConfiguredTest.class);
+		copy(ConfiguredTest.class.getResourceAsStream(classFileName), new File(packageDirectory, classFileName));
+	}
+
+	@After
+	public void deleteClasses() {
+		System.clearProperty(TestPlanManifest.DISABLED_PROPERTY);
+		delete(classesDirectory);
+	}
+
+	@Test
+	public void generatedManifestIsRead() throws Exception {
+		generate();
+
+		final Class<?> testClass = loadFromClassesDirectory();
+		assertArrayEquals(new String[] { "com.example.Prepared" }, TestPlanManifest.getValues(testClass,
+				TestPlanManifest.PREPARE));
+		assertArrayEquals(new String[0], TestPlanManifest.getValues(testClass, TestPlanManifest.SUPPRESS));
+		assertArrayEquals(new String[] { "com.example.ignored.*" }, TestPlanManifest.getValues(testClass, TestPlanManifest.IGNORE));
+	}
+
+	@Test
+	public void manifestOfChangedClassIsIgnored() throws Exception {
+		generate();
+		final File manifestFile = new File(new File(classesDirectory, PACKAGE_DIRECTORY), TestPlanManifest.FILE_NAME);
+		final Properties manifest = new Properties();
+		final InputStream in = new FileInputStream(manifestFile);
+		try {
+			manifest.load(in);
+		} finally {
+			in.close();
+		}
+		final String checksumKey = TestPlanManifest.getKey(ConfiguredTest.class.getName(), TestPlanManifest.CHECKSUM);
+		assertNotNull(manifest.getProperty(checksumKey));
+		// As if the class had been recompiled after the manifest was generated
+		manifest.setProperty(checksumKey, "0");
+		final OutputStream out = new FileOutputStream(manifestFile);
+		try {
+			manifest.store(out, null);
+		} finally {
+			out.close();
+		}
+
+		assertNull(TestPlanManifest.getValues(loadFromClassesDirectory(), TestPlanManifest.PREPARE));
+	}
+
+	private void generate() throws Exception {
+		TestPlanManifestGenerator.main(new String[] { classesDirectory.getPath() });
+		System.clearProperty(TestPlanManifest.DISABLED_PROPERTY);
+	}
+
+	/**
+	 * Load the test class from the classes directory only, so that its
+	 * manifest is looked up there.
+	 */
+	private Class<?> loadFromClassesDirectory() throws Exception {
+		return Class.forName(ConfiguredTest.class.getName(), false, new URLClassLoader(new URL[] { classesDirectory.toURI().toURL() },
+				null));
+	}
+
+	private static String getClassFileName(Class<?> type) {
+		return type.getName().substring(type.getName().lastIndexOf('.') + 1) + ".class";
+	}
+
+	private static void copy(InputStream in, File file) throws IOException {
+		final OutputStream out = new FileOutputStream(file);
+		try {
+			final byte[] buffer = new byte[4096];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+
+	private static void delete(File file) {
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	@PrepareForTest(fullyQualifiedNames = "com.example.Prepared")
+	@PowerMockIgnore("com.example.ignored.*")
+	public static class ConfiguredTest {
+	}
+}